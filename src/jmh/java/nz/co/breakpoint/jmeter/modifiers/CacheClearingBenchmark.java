@@ -0,0 +1,69 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of clearing a full preflight cache at the start of an iteration and refilling it during the iteration:
+ * removing all entries at once vs. clearing logically and removing cleared entries incrementally.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheClearingBenchmark {
+
+    @Param({"1000", "100000"})
+    public int cacheSize;
+
+    protected PreflightCache cache;
+    protected PreflightCacheKey[] keys;
+    protected final long expiry = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+
+    @Setup(Level.Trial)
+    public void setUpKeys() {
+        keys = new PreflightCacheKey[cacheSize];
+        for (int i = 0; i < cacheSize; ++i) {
+            keys[i] = new PreflightCacheKey("https://source.co.nz", "https://target.co.nz/api/resources/" + i, false);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cache = new PreflightCache(0);
+        refill();
+    }
+
+    protected void refill() {
+        for (PreflightCacheKey key : keys) {
+            cache.put(key, Arrays.asList("PUT"), Collections.emptyList(), expiry);
+        }
+    }
+
+    /** Iteration start only: the pause each thread takes */
+    @Benchmark
+    public void clear() {
+        cache.clear();
+    }
+
+    @Benchmark
+    public void clearLogically() {
+        cache.clearInsertedBefore(System.nanoTime());
+    }
+
+    /** Iteration start and the requests of the iteration */
+    @Benchmark
+    public void clearAndRefill() {
+        cache.clear();
+        refill();
+    }
+
+    @Benchmark
+    public void clearLogicallyAndRefill() {
+        cache.clearInsertedBefore(System.nanoTime());
+        refill();
+    }
+}
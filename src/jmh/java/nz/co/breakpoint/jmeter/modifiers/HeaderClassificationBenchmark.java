@@ -0,0 +1,48 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Cost of deciding which request headers require a preflight request.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HeaderClassificationBenchmark {
+
+    protected Header[] headers;
+    protected HeaderManager headerManager;
+
+    @Setup
+    public void setUp() {
+        headers = new Header[]{
+                new Header("Origin", "https://origin.co.nz"),
+                new Header("Accept", "application/json"),
+                new Header("Content-Type", "application/json"),
+                new Header("Authorization", "Bearer abc"),
+                new Header("X-Request-Id", "42"),
+                new Header("Sec-Fetch-Mode", "cors"),
+                new Header("Range", "bytes=0-1023"),
+                new Header("Cookie", "session=xyz"),
+        };
+        headerManager = new HeaderManager();
+        for (Header h : headers) headerManager.add(h);
+    }
+
+    @Benchmark
+    public void isPreflightHeader(Blackhole bh) {
+        for (Header h : headers) bh.consume(CorsPreProcessor.isPreflightHeader(h));
+    }
+
+    @Benchmark
+    public Collection<String> getPreflightHeaders() {
+        return CorsPreProcessor.getPreflightHeaders(headerManager);
+    }
+}
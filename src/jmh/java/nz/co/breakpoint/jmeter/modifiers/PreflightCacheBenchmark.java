@@ -0,0 +1,50 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Cost of preflight cache lookups, depending on the number of cached URLs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PreflightCacheBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int cacheSize;
+
+    protected CorsPreProcessor instance;
+    protected PreflightCacheKey[] keys;
+    protected Collection<String> headers = Arrays.asList("X-Request-Id", "Content-Type");
+    protected int next;
+
+    @Setup
+    public void setUp() {
+        instance = new CorsPreProcessor();
+        keys = new PreflightCacheKey[cacheSize];
+        final long expiry = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        for (int i = 0; i < cacheSize; ++i) {
+            keys[i] = new PreflightCacheKey("https://source.co.nz", "https://target.co.nz/api/resources/" + i, false);
+            instance.getPreflightCache().put(keys[i], Arrays.asList("GET", "PUT", "DELETE"),
+                    Arrays.asList("x-request-id", "content-type", "x-api-version"), expiry);
+        }
+    }
+
+    @Benchmark
+    public boolean isInPreflightCacheHit() {
+        next = (next + 1) % cacheSize;
+        return instance.isInPreflightCache(keys[next], "PUT", headers);
+    }
+
+    @Benchmark
+    public boolean isInPreflightCacheMiss() {
+        next = (next + 1) % cacheSize;
+        return instance.isInPreflightCache(keys[next], "PATCH", Collections.emptyList());
+    }
+}
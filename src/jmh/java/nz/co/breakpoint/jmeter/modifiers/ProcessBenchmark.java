@@ -0,0 +1,97 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import kg.apc.emulators.TestJMeterUtils;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.testelement.AbstractTestElement;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.openjdk.jmh.annotations.*;
+
+/** Full cost of the CORS Pre-Processor per actual request, with a stub sampler that does not make network calls.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessBenchmark {
+
+    /** Discards preflight results, so they do not accumulate */
+    static class NullListener extends AbstractTestElement implements SampleListener {
+        @Override public void sampleOccurred(SampleEvent e) {}
+        @Override public void sampleStarted(SampleEvent e) {}
+        @Override public void sampleStopped(SampleEvent e) {}
+    }
+
+    protected JMeterContext context;
+    protected CorsPreProcessor instance, lightweightInstance;
+    protected HTTPSamplerStub cachedSampler, uncachedSampler, simpleSampler;
+
+    @Setup
+    public void setUp() {
+        TestJMeterUtils.createJmeterEnv(); // initialises this benchmark thread's context
+        context = JMeterContextService.getContext();
+
+        instance = new CorsPreProcessor();
+        instance.setThreadContext(context);
+        instance.setPreflightLabelSuffix(CorsPreProcessor.PREFLIGHT_LABEL_SUFFIX_DEFAULT);
+        instance.setDefaultCacheExpiry(5);
+
+        cachedSampler = createSampler("https://target.co.nz/cached");
+        cachedSampler.addHeader("X-foo", "bar");
+        uncachedSampler = createSampler("https://target.co.nz/uncached");
+        uncachedSampler.addHeader("X-foo", "bar");
+        uncachedSampler.maxAge = 0; // expires immediately
+
+        simpleSampler = createSampler("https://target.co.nz/simple");
+
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(new NullListener(), instance, cachedSampler, uncachedSampler, simpleSampler));
+        context.setThread(new JMeterThread(tree, null, null));
+
+        context.setCurrentSampler(cachedSampler);
+        instance.process();
+
+        lightweightInstance = (CorsPreProcessor) instance.clone();
+        lightweightInstance.setThreadContext(context);
+        lightweightInstance.setLightweightPreflight(true);
+    }
+
+    protected static HTTPSamplerStub createSampler(String url) {
+        HTTPSamplerStub sampler = new HTTPSamplerStub(url, "GET", url);
+        sampler.addHeader("Origin", "https://origin.co.nz");
+        sampler.addHeader("Accept", "application/json");
+        return sampler;
+    }
+
+    @Benchmark
+    public void cacheHit() {
+        context.setCurrentSampler(cachedSampler);
+        instance.process();
+    }
+
+    @Benchmark
+    public void cacheMiss() {
+        context.setCurrentSampler(uncachedSampler);
+        instance.process();
+    }
+
+    @Benchmark
+    public void cacheMissLightweight() {
+        context.setCurrentSampler(uncachedSampler);
+        lightweightInstance.process();
+    }
+
+    @Benchmark
+    public void simpleRequest() {
+        context.setCurrentSampler(simpleSampler);
+        instance.process();
+    }
+}
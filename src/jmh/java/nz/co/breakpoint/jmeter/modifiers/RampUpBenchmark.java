@@ -0,0 +1,116 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import kg.apc.emulators.TestJMeterUtils;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.engine.TreeCloner;
+import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleListener;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.apache.jorphan.collections.SearchByClass;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Per-thread set-up cost of the CORS Pre-Processor when many threads start, each with its own clone of the test plan
+ * (as made by JMeter): finding the listeners in scope of the samplers (positions found in one pass by the first thread,
+ * then looked up in each thread's clone) vs. the previous search for all listeners in the plan when each thread started.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class RampUpBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int threads;
+
+    @Param({"20", "200"})
+    public int samplers;
+
+    protected JMeterContext context;
+    protected JMeterThread[] jmeterThreads;
+    protected CorsPreProcessor[] instances;
+    protected HTTPSamplerStub[] lastSamplers;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        TestJMeterUtils.createJmeterEnv(); // initialises this benchmark thread's context
+        context = JMeterContextService.getContext();
+
+        final ListedHashTree plan = createPlan(samplers);
+        jmeterThreads = new JMeterThread[threads];
+        instances = new CorsPreProcessor[threads];
+        lastSamplers = new HTTPSamplerStub[threads];
+        for (int i = 0; i < threads; ++i) {
+            TreeCloner cloner = new TreeCloner(true);
+            plan.traverse(cloner);
+            HashTree tree = cloner.getClonedTree();
+            jmeterThreads[i] = new JMeterThread(tree, null, null);
+            instances[i] = find(tree, CorsPreProcessor.class).get(0);
+            List<HTTPSamplerStub> found = find(tree, HTTPSamplerStub.class);
+            lastSamplers[i] = found.get(found.size() - 1);
+        }
+        instances[0].testStarted(); // clears listeners shared by the previous iteration
+        System.gc(); // of the previous iteration's clones, rather than while measuring
+    }
+
+    /** A loop with a summary listener, a pre-processor and samplers, every tenth one with a listener of its own */
+    protected static ListedHashTree createPlan(int samplers) {
+        ListedHashTree plan = new ListedHashTree();
+        LoopController loop = new LoopController();
+        HeaderManager headers = new HeaderManager();
+        headers.add(new Header("Origin", "https://origin.co.nz"));
+        plan.add(loop, Arrays.asList(new ResultCollector(), new CorsPreProcessor(), headers));
+        for (int i = 0; i < samplers; ++i) {
+            HTTPSamplerStub sampler = new HTTPSamplerStub("sampler " + i, "PUT", "https://target.co.nz/" + i);
+            plan.add(loop, sampler);
+            if (i % 10 == 0) plan.add(Arrays.asList(loop, sampler), new ResultCollector());
+        }
+        return plan;
+    }
+
+    protected static <T> List<T> find(HashTree tree, Class<T> type) {
+        SearchByClass<T> search = new SearchByClass<>(type);
+        tree.traverse(search);
+        return search.getSearchResults().stream().distinct().collect(Collectors.toList());
+    }
+
+    /** Now done when threads start: nothing, unless batching preflight headers */
+    @Benchmark
+    public void threadStarted() {
+        for (int i = 0; i < threads; ++i) {
+            context.setThread(jmeterThreads[i]);
+            instances[i].threadStarted();
+        }
+    }
+
+    /** Now done when a thread first sends a preflight request: find the listeners in scope of all samplers */
+    @Benchmark
+    public void scopedListeners(Blackhole bh) {
+        for (int i = 0; i < threads; ++i) {
+            context.setThread(jmeterThreads[i]);
+            bh.consume(instances[i].getListeners(lastSamplers[i]));
+        }
+    }
+
+    /** Previously done when threads started: find all listeners in the test plan */
+    @Benchmark
+    public void allListeners(Blackhole bh) {
+        for (int i = 0; i < threads; ++i) {
+            SearchByClass<SampleListener> search = new SearchByClass<>(SampleListener.class);
+            jmeterThreads[i].getTestTree().traverse(search);
+            bh.consume(search.getSearchResults().stream().distinct().collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Extracting the Access-Control-* response headers of a preflight request:
+ * single-pass scanner vs. the previous one regular expression per header.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+
+    /** Previously used by the CORS Pre-Processor to extract each header */
+    protected static final Pattern MAX_AGE_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Max-Age: (\\V*)");
+    protected static final Pattern ALLOW_HEADERS_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Allow-Headers: (\\V*)");
+    protected static final Pattern ALLOW_METHODS_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Allow-Methods: (\\V*)");
+
+    protected String responseHeaders = "HTTP/1.1 204 No Content\n" +
+            "Date: Sun, 18 Oct 2026 00:00:00 GMT\n" +
+            "Connection: keep-alive\n" +
+            "Vary: Origin, Access-Control-Request-Headers\n" +
+            "Access-Control-Allow-Origin: https://origin.co.nz\n" +
+            "Access-Control-Allow-Credentials: true\n" +
+            "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, PATCH\n" +
+            "Access-Control-Allow-Headers: content-type, authorization, x-request-id, x-api-version\n" +
+            "Access-Control-Max-Age: 600\n" +
+            "Content-Length: 0\n";
+
+    protected PreflightResponse response = new PreflightResponse();
+
+    @Benchmark
+    public void scanner(Blackhole bh) {
+        response.parse(responseHeaders);
+        bh.consume(response.getMaxAge(5));
+        bh.consume(response.getAllowHeaders());
+        bh.consume(response.getAllowMethods());
+    }
+
+    @Benchmark
+    public void regex(Blackhole bh) {
+        Matcher m = MAX_AGE_HEADER_PATTERN.matcher(responseHeaders);
+        bh.consume(m.find() ? Long.parseLong(m.group(1)) : 5L);
+        bh.consume(regexList(ALLOW_HEADERS_HEADER_PATTERN.matcher(responseHeaders)));
+        bh.consume(regexList(ALLOW_METHODS_HEADER_PATTERN.matcher(responseHeaders)));
+    }
+
+    protected static List<String> regexList(Matcher m) {
+        return m.find() ? Arrays.asList(m.group(1).split("[\\s,]+")) : Collections.emptyList();
+    }
+}
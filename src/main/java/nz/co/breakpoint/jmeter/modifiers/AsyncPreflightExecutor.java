@@ -0,0 +1,105 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jmeter.protocol.http.sampler.HTTPSamplerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Executes preflight requests in the background, shared by all threads of a test.
+ * Uses virtual threads where available (Java 21+), otherwise a fixed pool of daemon threads.
+ * Either way, no more than the given number of preflight requests run concurrently.
+ * The HTTP clients (and so connections) of each executor thread are kept open for all the preflight requests it makes,
+ * and closed when the thread ends (i.e. after each request on a virtual thread, or when the pool is shut down).
+ */
+public final class AsyncPreflightExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncPreflightExecutor.class);
+
+    private static ExecutorService executor;
+    private static Executor bounded;
+
+    /** A preflight sampler that ran on the current executor thread, to close the thread's HTTP clients with */
+    private static final ThreadLocal<HTTPSamplerBase> lastSampler = new ThreadLocal<>();
+
+    private AsyncPreflightExecutor() {}
+
+    /**
+     * @param poolSize maximum number of concurrent preflight requests (only applied when first called during a test)
+     * @return an executor for preflight requests
+     */
+    public static synchronized Executor get(int poolSize) {
+        if (bounded == null) {
+            final int size = Math.max(1, poolSize);
+            final ExecutorService virtualThreads = newVirtualThreadExecutor();
+            if (virtualThreads != null) {
+                final Semaphore permits = new Semaphore(size);
+                executor = virtualThreads;
+                bounded = task -> virtualThreads.execute(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        task.run();
+                    } finally {
+                        closeConnections();
+                        permits.release();
+                    }
+                });
+            } else {
+                final AtomicInteger count = new AtomicInteger();
+                executor = Executors.newFixedThreadPool(size, task -> {
+                    Thread thread = new Thread(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            closeConnections();
+                        }
+                    }, "cors-preflight-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                bounded = executor;
+            }
+        }
+        return bounded;
+    }
+
+    /** Registers a preflight sampler that is about to run on the current executor thread, so that the thread's
+     * HTTP clients can be closed when it ends (rather than after each request).
+     *
+     * @param sampler preflight sampler
+     */
+    public static void closeConnectionsOnExit(HTTPSamplerBase sampler) {
+        lastSampler.set(sampler);
+    }
+
+    /** Closes the HTTP clients of the current executor thread, if any */
+    private static void closeConnections() {
+        final HTTPSamplerBase sampler = lastSampler.get();
+        if (sampler != null) {
+            lastSampler.remove();
+            sampler.threadFinished();
+        }
+    }
+
+    /** Stops any background preflight requests, e.g. at the end of a test.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            bounded = null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Virtual threads not available, using a fixed thread pool");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+/** Preflight cache limits of real browsers, so that simulated preflight traffic matches theirs:
+ * the maximum "Access-Control-Max-Age" they honour, the expiry if it is absent, and the number of entries they cache.
+ *
+ * @see <a href="https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Access-Control-Max-Age">Access-Control-Max-Age</a>
+ */
+public enum BrowserProfile {
+
+    /** As per the CORS Pre-Processor's own cache settings, without a Max-Age ceiling */
+    CUSTOM("Custom", Long.MAX_VALUE, -1, -1),
+    /** Chrome, Edge, Opera etc. */
+    CHROMIUM("Chromium", 7200, 5, 1024),
+    FIREFOX("Firefox", 86400, 5, 100),
+    /** WebKit */
+    SAFARI("Safari", 600, 5, 0);
+
+    final String displayName;
+    /** Seconds */
+    final long maxAgeCeiling;
+    /** Seconds, or -1 to use the configured default */
+    final long defaultMaxAge;
+    /** 0 for no limit, or -1 to use the configured maximum */
+    final int maxEntries;
+
+    BrowserProfile(String displayName, long maxAgeCeiling, long defaultMaxAge, int maxEntries) {
+        this.displayName = displayName;
+        this.maxAgeCeiling = maxAgeCeiling;
+        this.defaultMaxAge = defaultMaxAge;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param displayName as shown in the GUI
+     * @return the matching profile, or {@link #CUSTOM} if there is none
+     */
+    public static BrowserProfile of(String displayName) {
+        for (BrowserProfile profile : values()) {
+            if (profile.displayName.equalsIgnoreCase(displayName)) return profile;
+        }
+        return CUSTOM;
+    }
+
+    /** @return display names of all profiles, for the GUI */
+    public static String[] displayNames() {
+        BrowserProfile[] profiles = values();
+        String[] names = new String[profiles.length];
+        for (int i = 0; i < profiles.length; ++i) names[i] = profiles[i].displayName;
+        return names;
+    }
+
+    /**
+     * @param maxAge as per "Access-Control-Max-Age" (or the default) in seconds
+     * @return the Max-Age honoured by this browser
+     */
+    public long capMaxAge(long maxAge) { return Math.min(maxAge, maxAgeCeiling); }
+
+    /**
+     * @param configured the CORS Pre-Processor's default expiry
+     * @return expiry (in seconds) if no "Access-Control-Max-Age" is received
+     */
+    public long getDefaultMaxAge(long configured) { return defaultMaxAge < 0 ? configured : defaultMaxAge; }
+
+    /**
+     * @param configured the CORS Pre-Processor's maximum cache size
+     * @return maximum number of entries this browser caches, or 0 for no limit
+     */
+    public int getMaxEntries(int configured) { return maxEntries < 0 ? configured : maxEntries; }
+
+    public String getDisplayName() { return displayName; }
+}
@@ -0,0 +1,232 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Counters of the CORS Pre-Processor's activity per thread group, e.g. to see how well the preflight cache works
+ * during long tests without post-processing the results.
+ * Counters are striped ({@link LongAdder}), so that many threads can update them without contention.
+ * They are cumulative since the start of the test and can be published periodically to the log,
+ * JMeter properties (prefixed with "cors.&lt;thread group&gt;.") and a CSV file.
+ */
+public class CorsMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(CorsMetrics.class);
+
+    public static final String PROPERTY_PREFIX = "cors.";
+    public static final String CSV_HEADER = "timeStamp,threadGroup,cacheHits,cacheMisses,evictions,preflights," +
+            "failures,suppressed,blocked,simpleRequests,noOrigin,latencyMean,latencyP50,latencyP95,latencyP99,latencyMax," +
+            "maxAgeMean,maxAgeP50,maxAgeMin,maxAgeMax";
+
+    protected static final Map<String, CorsMetrics> byThreadGroup = new ConcurrentSkipListMap<>();
+    private static ScheduledExecutorService publisher;
+
+    final String threadGroup;
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder cacheMisses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder preflights = new LongAdder();
+    /** Preflights that failed validation */
+    final LongAdder failures = new LongAdder();
+    /** Preflights not sent because a recent one failed (negative caching) */
+    final LongAdder suppressed = new LongAdder();
+    /** Actual requests blocked after a failed preflight */
+    final LongAdder blocked = new LongAdder();
+    final LongAdder simpleRequests = new LongAdder();
+    final LongAdder noOrigin = new LongAdder();
+    /** Elapsed time of preflight requests in milliseconds */
+    final Histogram latency = new Histogram();
+    /** Expiry of preflight responses in seconds (as per "Access-Control-Max-Age" or the default) */
+    final Histogram maxAge = new Histogram();
+
+    protected CorsMetrics(String threadGroup) {
+        this.threadGroup = threadGroup;
+    }
+
+    /** Distribution of non-negative values in power-of-two buckets, so percentiles are accurate to within a factor 2.
+     */
+    public static class Histogram {
+        static final int BUCKETS = 64;
+
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+        final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; ++i) buckets[i] = new LongAdder();
+        }
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getMin() { return getCount() == 0 ? 0 : min.get(); }
+        public long getMax() { return max.get(); }
+        public double getMean() {
+            final long n = getCount();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @param p percentile between 0 and 100
+         * @return upper bound of the bucket that holds the percentile (but no more than the maximum)
+         */
+        public long getPercentile(double p) {
+            final long n = getCount();
+            if (n == 0) return 0;
+            final long rank = (long) Math.ceil(p / 100 * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+            }
+            return getMax();
+        }
+    }
+
+    /**
+     * @param threadGroup name of a thread group
+     * @return the thread group's metrics
+     */
+    public static CorsMetrics get(String threadGroup) {
+        return byThreadGroup.computeIfAbsent(threadGroup == null ? "" : threadGroup, CorsMetrics::new);
+    }
+
+    /** Discards all metrics, e.g. at the start of a test */
+    public static void reset() {
+        byThreadGroup.clear();
+    }
+
+    /** Starts publishing metrics periodically, unless already started (e.g. by another CORS Pre-Processor).
+     *
+     * @param intervalSeconds publishing interval
+     * @param file CSV file to append to, or empty
+     */
+    public static synchronized void startPublishing(long intervalSeconds, String file) {
+        if (publisher != null || intervalSeconds <= 0) return;
+        publisher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cors-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleAtFixedRate(() -> publishAll(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Stops publishing metrics and publishes them one last time, e.g. at the end of a test.
+     *
+     * @param file CSV file to append to, or empty
+     */
+    public static synchronized void stopPublishing(String file) {
+        if (publisher == null) return;
+        publisher.shutdownNow();
+        publisher = null;
+        publishAll(file);
+    }
+
+    protected static void publishAll(String file) {
+        final long now = System.currentTimeMillis();
+        StringBuilder csv = new StringBuilder();
+        for (CorsMetrics metrics : byThreadGroup.values()) {
+            log.info(metrics.toString());
+            metrics.setProperties();
+            csv.append(now).append(',').append(metrics.toCsv()).append('\n');
+        }
+        if (file != null && !file.isEmpty()) {
+            appendCsv(Paths.get(file), csv.toString());
+        }
+    }
+
+    protected static void appendCsv(Path path, String rows) {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (Files.size(path) == 0) writer.write(CSV_HEADER + "\n");
+            writer.write(rows);
+        } catch (IOException e) {
+            log.warn("Cannot write CORS metrics to {}", path, e);
+        }
+    }
+
+    protected void setProperties() {
+        final String prefix = PROPERTY_PREFIX + threadGroup + ".";
+        JMeterUtils.setProperty(prefix + "cacheHits", String.valueOf(cacheHits.sum()));
+        JMeterUtils.setProperty(prefix + "cacheMisses", String.valueOf(cacheMisses.sum()));
+        JMeterUtils.setProperty(prefix + "evictions", String.valueOf(evictions.sum()));
+        JMeterUtils.setProperty(prefix + "preflights", String.valueOf(preflights.sum()));
+        JMeterUtils.setProperty(prefix + "failures", String.valueOf(failures.sum()));
+        JMeterUtils.setProperty(prefix + "suppressed", String.valueOf(suppressed.sum()));
+        JMeterUtils.setProperty(prefix + "blocked", String.valueOf(blocked.sum()));
+        JMeterUtils.setProperty(prefix + "simpleRequests", String.valueOf(simpleRequests.sum()));
+        JMeterUtils.setProperty(prefix + "noOrigin", String.valueOf(noOrigin.sum()));
+        JMeterUtils.setProperty(prefix + "latencyP95", String.valueOf(latency.getPercentile(95)));
+        JMeterUtils.setProperty(prefix + "maxAgeP50", String.valueOf(maxAge.getPercentile(50)));
+    }
+
+    protected String toCsv() {
+        return String.join(",", csvQuote(threadGroup),
+                String.valueOf(cacheHits.sum()), String.valueOf(cacheMisses.sum()), String.valueOf(evictions.sum()),
+                String.valueOf(preflights.sum()), String.valueOf(failures.sum()), String.valueOf(suppressed.sum()),
+                String.valueOf(blocked.sum()), String.valueOf(simpleRequests.sum()), String.valueOf(noOrigin.sum()),
+                String.format(Locale.ROOT, "%.1f", latency.getMean()), String.valueOf(latency.getPercentile(50)),
+                String.valueOf(latency.getPercentile(95)), String.valueOf(latency.getPercentile(99)),
+                String.valueOf(latency.getMax()),
+                String.format(Locale.ROOT, "%.1f", maxAge.getMean()), String.valueOf(maxAge.getPercentile(50)),
+                String.valueOf(maxAge.getMin()), String.valueOf(maxAge.getMax()));
+    }
+
+    protected static String csvQuote(String value) {
+        return value.matches("[^,\"\\r\\n]*") ? value : "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /** @return ratio of cache hits to cache lookups, or 0 if there were none */
+    public double getHitRatio() {
+        final long hits = cacheHits.sum(), lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getCacheHits() { return cacheHits.sum(); }
+    public long getCacheMisses() { return cacheMisses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public long getPreflights() { return preflights.sum(); }
+    public long getFailures() { return failures.sum(); }
+    public long getSuppressed() { return suppressed.sum(); }
+    public long getBlocked() { return blocked.sum(); }
+    public long getSimpleRequests() { return simpleRequests.sum(); }
+    public long getNoOrigin() { return noOrigin.sum(); }
+    public Histogram getLatency() { return latency; }
+    public Histogram getMaxAge() { return maxAge; }
+
+    @Override
+    public String toString() {
+        return String.format("CORS metrics for \"%s\": %d cache hits, %d misses (%.1f%% hit ratio), %d evictions, " +
+                        "%d preflights (latency mean %.1f ms, p95 %d ms, max %d ms; max-age median %d s), " +
+                        "%d failed, %d suppressed, %d blocked, " +
+                        "%d simple requests, %d without Origin",
+                threadGroup, getCacheHits(), getCacheMisses(), 100 * getHitRatio(), getEvictions(),
+                getPreflights(), latency.getMean(), latency.getPercentile(95), latency.getMax(),
+                maxAge.getPercentile(50), getFailures(), getSuppressed(), getBlocked(), getSimpleRequests(), getNoOrigin());
+    }
+}
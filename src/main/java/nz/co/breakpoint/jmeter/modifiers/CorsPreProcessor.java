@@ -1,20 +1,27 @@
 package nz.co.breakpoint.jmeter.modifiers;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
-import java.util.stream.Collectors;
-import org.apache.commons.collections4.map.PassiveExpiringMap;
-import org.apache.commons.lang3.tuple.ImmutableTriple;
+import org.apache.jmeter.assertions.AssertionResult;
+import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.engine.event.LoopIterationEvent;
 import org.apache.jmeter.processor.PreProcessor;
 import org.apache.jmeter.protocol.http.control.Header;
 import org.apache.jmeter.protocol.http.control.HeaderManager;
 import org.apache.jmeter.protocol.http.sampler.HTTPSamplerBase;
+import org.apache.jmeter.protocol.http.util.HTTPConstants;
 import org.apache.jmeter.samplers.SampleEvent;
 import org.apache.jmeter.samplers.SampleListener;
 import org.apache.jmeter.samplers.SampleResult;
@@ -22,31 +29,109 @@ import org.apache.jmeter.samplers.Sampler;
 import org.apache.jmeter.testbeans.TestBean;
 import org.apache.jmeter.testelement.AbstractTestElement;
 import org.apache.jmeter.testelement.TestIterationListener;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
 import org.apache.jmeter.testelement.property.JMeterProperty;
+import org.apache.jmeter.testelement.property.NullProperty;
+import org.apache.jmeter.testelement.property.TestElementProperty;
+import org.apache.jmeter.threads.AbstractThreadGroup;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.ListenerNotifier;
-import org.apache.jorphan.collections.SearchByClass;
+import org.apache.jorphan.collections.HashTree;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 public class CorsPreProcessor extends AbstractTestElement
-        implements PreProcessor, ThreadListener, TestIterationListener, TestBean {
+        implements PreProcessor, ThreadListener, TestIterationListener, TestStateListener, TestBean {
 
     private static final long serialVersionUID = 1L;
 
     public static Logger log = LoggerFactory.getLogger(CorsPreProcessor.class);
 
     protected transient ListenerNotifier notifier = new ListenerNotifier();
-    protected transient List<SampleListener> listeners;
-
-    protected transient PassiveExpiringMap<ImmutableTriple<String, String, String>, Long> preflightCache = // cached value is simply the expiration time in epoch millis
-            new PassiveExpiringMap<>((PassiveExpiringMap.ExpirationPolicy<ImmutableTriple<String, String, String>, Long>)
-                    (key, value) -> value);
+    /** Listeners in scope of each HTTP sampler (and this pre-processor), determined when first needed */
+    protected transient Map<Object, List<SampleListener>> listeners;
+
+    protected transient PreflightCache preflightCache;
+    protected transient Map<HTTPSamplerBase, CorsProfile> profiles = new IdentityHashMap<>();
+    protected transient PreflightResponse preflightResponse = new PreflightResponse();
+    protected transient List<HTTPSamplerBase> warmUpSamplers;
+    /** Sampler in the test tree that each configured warm-up sampler was cloned from (for finding its listeners) */
+    protected transient Map<HTTPSamplerBase, HTTPSamplerBase> warmUpOriginals = new IdentityHashMap<>();
+    protected transient PreflightBatches batches;
+    protected transient CorsMetrics metrics;
+    /** Reusable preflight request per HTTP sampler (in lightweight mode) */
+    protected transient Map<HTTPSamplerBase, HTTPSamplerBase> pooledPreflights = new IdentityHashMap<>();
+    protected transient int iterationsSinceClear;
+    /** Snapshot that this thread's cache is warmed from since it was created or last cleared (if the user is
+     * a returning one), one entry at a time as it is missed */
+    protected transient PreflightSnapshot warmSnapshot;
+    protected transient long warmedAt; // epoch millis
+    /** Listener notifications of background preflight requests, to be made on this thread (as listeners may be
+     * cloned per thread, so are not thread-safe) */
+    protected transient Queue<Runnable> pendingNotifications = new ConcurrentLinkedQueue<>();
+
+    /** Preflight caches shared by all threads (keyed by scope name) or by a thread group (keyed by the group) */
+    protected static final Map<Object, PreflightCache> sharedCaches = new ConcurrentHashMap<>();
+
+    /** Preflight headers learned per thread group and pre-processor, keyed by thread group and position of the
+     * pre-processor in the test tree (as names need not be unique) */
+    protected static final Map<List<Object>, PreflightBatches> sharedBatches = new ConcurrentHashMap<>();
+
+    /** Positions of the listeners in scope of each sampler (and pre-processor), keyed by thread group,
+     * as all threads of a group have structurally identical clones of the test tree */
+    protected static final Map<List<Object>, TestPlanScope.PositionalScopes<SampleListener>> sharedListeners =
+        new ConcurrentHashMap<>();
+
+    /** Snapshots loaded at test start, and those being learned during the test, keyed by file name */
+    protected static final Map<String, PreflightSnapshot> loadedSnapshots = new ConcurrentHashMap<>();
+    protected static final Map<String, PreflightSnapshot> learnedSnapshots = new ConcurrentHashMap<>();
 
     public static final String PREFLIGHT_LABEL_SUFFIX = "preflightLabelSuffix";
     public static final String CLEAR_EACH_ITERATION = "clearEachIteration";
     public static final String DEFAULT_CACHE_EXPIRY = "defaultCacheExpiry";
+    public static final String CACHE_MAX_SIZE = "cacheMaxSize";
+    public static final String CACHE_SCOPE = "cacheScope";
+    public static final String ASYNC_PREFLIGHT = "asyncPreflight";
+    public static final String WARM_UP_URLS = "warmUpUrls";
+    public static final String ASYNC_POOL_SIZE = "asyncPoolSize";
+    public static final String BATCH_PREFLIGHT_HEADERS = "batchPreflightHeaders";
+    public static final String IGNORE_QUERY_STRING = "ignoreQueryString";
+    public static final String METRICS_INTERVAL = "metricsInterval";
+    public static final String METRICS_FILE = "metricsFile";
+    public static final String LIGHTWEIGHT_PREFLIGHT = "lightweightPreflight";
+    public static final String SNAPSHOT_FILE = "snapshotFile";
+    public static final String WARM_PERCENTAGE = "warmPercentage";
+    public static final String BROWSER_PROFILE = "browserProfile";
+    public static final String VALIDATE_PREFLIGHT = "validatePreflight";
+    public static final String BLOCK_FAILED_REQUESTS = "blockFailedRequests";
+    public static final String NEGATIVE_CACHE_TTL = "negativeCacheTtl";
+    public static final String NEGATIVE_CACHE_BACKOFF = "negativeCacheBackoff";
+    public static final String NEGATIVE_CACHE_MAX_TTL = "negativeCacheMaxTtl";
+    public static final String CLEAR_EVERY_ITERATIONS = "clearEveryIterations";
+    public static final String CLEAR_PERCENTAGE = "clearPercentage";
+    public static final String CLEAR_OLDER_THAN = "clearOlderThan";
+    public static final String CREDENTIALS_MODE = "credentialsMode";
+
+    public static final String CACHE_SCOPE_THREAD = "Thread";
+    public static final String CACHE_SCOPE_THREAD_GROUP = "Thread Group";
+    public static final String CACHE_SCOPE_GLOBAL = "Global";
+    public static final String CREDENTIALS_MODE_OMIT = "omit";
+    public static final String CREDENTIALS_MODE_SAME_ORIGIN = "same-origin";
+    public static final String CREDENTIALS_MODE_INCLUDE = "include";
+    public static final int SHARED_CACHE_CONCURRENCY = 64;
+    public static final long PREFLIGHT_WAIT_TIMEOUT = 60000; // millis, if the sampler has no timeouts
+
+    /** Sampler properties that may change between iterations, so are copied to pooled preflight requests */
+    protected static final String[] POOLED_PREFLIGHT_PROPERTIES = {
+            HTTPSamplerBase.PROTOCOL, HTTPSamplerBase.DOMAIN, HTTPSamplerBase.PORT, HTTPSamplerBase.PATH,
+            HTTPSamplerBase.ARGUMENTS, HTTPSamplerBase.CONTENT_ENCODING,
+            HTTPSamplerBase.CONNECT_TIMEOUT, HTTPSamplerBase.RESPONSE_TIMEOUT
+    };
+    protected static final byte[] NO_RESPONSE_DATA = {};
+    /** Protocol that JMeter cannot send, for blocking the actual request after a failed preflight */
+    public static final String BLOCKED_PROTOCOL = "cors-blocked";
+    public static final String VALIDATION_ASSERTION_NAME = "CORS preflight validation";
 
     public static final String PREFLIGHT_LABEL_SUFFIX_DEFAULT = "-preflight";
     public static final String allowedMethods = "GET|HEAD|POST";
@@ -58,16 +143,16 @@ public class CorsPreProcessor extends AbstractTestElement
     public static final String ACCEPT = "Accept";
     public static final String ACCESS_CONTROL_REQUEST_METHOD = "Access-Control-Request-Method";
     public static final String ACCESS_CONTROL_REQUEST_HEADERS = "Access-Control-Request-Headers";
-    public static final Pattern MAX_AGE_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Max-Age: (\\V*)");
-    public static final Pattern ALLOW_HEADERS_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Allow-Headers: (\\V*)");
-    public static final Pattern ALLOW_METHODS_HEADER_PATTERN = Pattern.compile("(?i)\\bAccess-Control-Allow-Methods: (\\V*)");
 
+    /** Safelisted header names (lower case) and regular expressions of their safelisted values.
+     * Read once, when headers are first classified (see {@link PreflightHeaderClassifier}).
+     */
     public static final Map<String, String> safeListedHeaders = new HashMap<String, String>() {{
             put("accept", ".*");
             put("accept-language", ".*");
             put("content-language", ".*");
             put("content-type", "(application/x-www-form-urlencoded|multipart/form-data|text/plain).*");
-            put("range", "bytes=([0-9]+-[0-9]*|-[0-9]+)");
+            put("range", PreflightHeaderClassifier.SINGLE_BYTE_RANGE);
     }};
 
     public static final String forbiddenHeaders = String.join("|",
@@ -102,6 +187,7 @@ public class CorsPreProcessor extends AbstractTestElement
 
     @Override
     public void process() {
+        if (!pendingNotifications.isEmpty()) notifyPending();
         JMeterContext context = getThreadContext();
         Sampler sampler = context.getCurrentSampler();
 
@@ -110,63 +196,391 @@ public class CorsPreProcessor extends AbstractTestElement
         }
 
         HTTPSamplerBase httpSampler = (HTTPSamplerBase) sampler;
-        final String method = httpSampler.getMethod();
-        final String url;
+        final CorsProfile profile = getProfile(httpSampler);
+        if (!profile.hasOrigin()) {
+            log.debug("No Origin header present, skipping.");
+            getMetrics().noOrigin.increment();
+            return;
+        }
+        if (!profile.needsPreflight()) { // simple request
+            getMetrics().simpleRequests.increment();
+            return;
+        }
+
+        final String method = profile.getMethod();
+        final Collection<String> preflightHeaders = profile.getPreflightHeaders();
+        final PreflightCacheKey key;
         try {
-            url = String.valueOf(httpSampler.getUrl());
+            key = profile.getCacheKey(httpSampler, getIgnoreQueryString());
         } catch (MalformedURLException e) {
             log.error("Invalid sampler URL", e);
             return;
         }
-        if (getHeaders(httpSampler.getHeaderManager()).noneMatch(h -> ORIGIN.equalsIgnoreCase(h.getName()))) {
-            log.debug("No Origin header present, skipping.");
+        if (isInPreflightCache(key, method, preflightHeaders)) {
+            log.debug("Preflight still cached, skipping.");
+            getMetrics().cacheHits.increment();
             return;
         }
-        Collection<String> preflightHeaders = getPreflightHeaders(httpSampler.getHeaderManager());
+        if (isSuppressed(key, httpSampler)) return;
+        getMetrics().cacheMisses.increment();
+        final PreflightCache cache = getPreflightCache();
+        final String requestHeaders = getPreflightRequestHeaders(key, profile);
+        final String inFlightKey = isSharedCache() || getAsyncPreflight() ? inFlightKey(key, profile) : null;
+        boolean passed;
+        CountDownLatch pending = inFlightKey == null ? null : cache.startPreflight(inFlightKey);
+        if (pending != null) {
+            log.debug("Waiting for preflight made by another thread.");
+            awaitPreflight(pending, httpSampler);
+            if (isInPreflightCache(key, method, preflightHeaders) || isSuppressed(key, httpSampler)) return;
+            passed = sendPreflight(key, profile, getPreflight(httpSampler, profile, requestHeaders), preflightResponse,
+                    getListeners(httpSampler), false); // other preflight did not cover this request
+        } else {
+            try {
+                if (inFlightKey != null && isInPreflightCache(key, method, preflightHeaders)) {
+                    return; // cached by another thread's preflight that ended after the lookup above
+                }
+                passed = sendPreflight(key, profile, getPreflight(httpSampler, profile, requestHeaders),
+                        preflightResponse, getListeners(httpSampler), false);
+            } finally {
+                if (inFlightKey != null) cache.endPreflight(inFlightKey);
+            }
+        }
+        if (!passed && getBlockFailedRequests()) {
+            blockRequest(httpSampler);
+        }
+    }
+
+    /** Determines the "Access-Control-Request-Headers" for a preflight request, which (when batching) includes
+     * all headers seen for the same URL and method.
+     */
+    protected String getPreflightRequestHeaders(PreflightCacheKey key, CorsProfile profile) {
+        if (batches == null) return profile.getRequestHeaders();
+        batches.learn(key.getUrl(), profile.getMethod(), profile.getPreflightHeaders());
+        return batches.getRequestHeaders(key.getUrl(), profile.getMethod(), profile);
+    }
+
+    protected static String inFlightKey(PreflightCacheKey key, CorsProfile profile) {
+        return key + " " + profile.getMethod() + " " + profile.getRequestHeaders();
+    }
+
+    /** Returns the sampler's CORS profile, recomputing it only if the sampler's method, URL or headers have changed
+     * since it was last seen.
+     */
+    protected CorsProfile getProfile(HTTPSamplerBase sampler) {
+        CorsProfile profile = profiles.get(sampler);
+        if (profile == null || !profile.matches(sampler)) {
+            profile = CorsProfile.of(sampler, getCredentialsMode());
+            profiles.put(sampler, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * @param key cache key of the actual request
+     * @param profile of the actual request
+     * @param preflight as created by {@link #createPreflight(HTTPSamplerBase, CorsProfile, String)}
+     * @param response for parsing the preflight response (not shared between concurrent calls)
+     * @param listeners to notify of the preflight result
+     * @param background whether called on another thread than this pre-processor's, in which case the listeners
+     * are notified on this pre-processor's thread when it next processes a sampler
+     * @return false iff validation is enabled and the preflight failed it
+     */
+    protected boolean sendPreflight(PreflightCacheKey key, CorsProfile profile, HTTPSamplerBase preflight,
+            PreflightResponse response, List<SampleListener> listeners, boolean background) {
+        JMeterContext context = getThreadContext();
+        SampleResult result = preflight.sample();
+        result.setThreadName(context.getThread().getThreadName());
+        getMetrics().preflights.increment();
+        getMetrics().latency.record(result.getTime());
+        parseResponse(result, response);
+        final String failure = getValidatePreflight() ? validate(result, response, profile) : null;
+        if (failure != null) failValidation(result, failure);
+        if ((failure != null || !result.isSuccessful()) && getNegativeCacheTtl() > 0) {
+            getMetrics().evictions.add(getPreflightCache().putFailure(key, this::getNegativeTtl));
+        } else if (failure == null) {
+            addToPreflightCache(key, result, response);
+        }
+        if (getLightweightPreflight()) discardResponseData(result);
+        if (!listeners.isEmpty()) {
+            final SampleEvent event = new SampleEvent(result, context.getThreadGroup().getName());
+            if (background) {
+                pendingNotifications.add(() -> notifier.notifyListeners(event, listeners));
+            } else {
+                notifier.notifyListeners(event, listeners);
+            }
+        }
+        return failure == null;
+    }
+
+    /** Notifies listeners of the results of background preflight requests that have completed since last called.
+     */
+    protected void notifyPending() {
+        for (Runnable notification; (notification = pendingNotifications.poll()) != null; ) notification.run();
+    }
+
+    /** Checks a preflight response as a browser would: an ok status, and headers that allow the actual request.
+     *
+     * @param result of the preflight request
+     * @param response parsed from the result
+     * @param profile of the actual request
+     * @return description of the first failed check, or null if all passed
+     */
+    protected static String validate(SampleResult result, PreflightResponse response, CorsProfile profile) {
+        final String code = result.getResponseCode();
+        if (code == null || code.length() != 3 || code.charAt(0) != '2') {
+            return "Response code " + code + " is not 2xx";
+        }
+        return response.check(profile.getOrigin(), profile.hasCredentials(), profile.getMethod(),
+                profile.getPreflightHeaders());
+    }
+
+    /** Checks whether preflight requests for the key are suppressed after a recent failure (if negatively caching),
+     * in which case the actual request is treated as after a failed preflight.
+     */
+    protected boolean isSuppressed(PreflightCacheKey key, HTTPSamplerBase sampler) {
+        if (getNegativeCacheTtl() <= 0 || !getPreflightCache().isFailing(key)) return false;
+        log.debug("Preflight failed recently, suppressing.");
+        getMetrics().suppressed.increment();
+        if (getBlockFailedRequests()) blockRequest(sampler);
+        return true;
+    }
+
+    /** Computes how long to suppress preflight requests after consecutive failures: the negative cache TTL or,
+     * with backoff, the TTL doubled for each further failure (up to the maximum), less up to half of it at random
+     * so that threads do not retry in lockstep.
+     *
+     * @param failures number of consecutive failures, starting at 1
+     * @return duration in millis
+     */
+    protected long getNegativeTtl(int failures) {
+        final long ttl = TimeUnit.SECONDS.toMillis(getNegativeCacheTtl());
+        if (!getNegativeCacheBackoff()) return ttl;
+        final long max = Math.max(ttl, TimeUnit.SECONDS.toMillis(getNegativeCacheMaxTtl()));
+        final long backoff = Math.min(max, ttl << Math.min(failures - 1, 20));
+        return backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /** Marks a preflight result as failed, with an assertion result giving the reason (so it shows in listeners).
+     */
+    protected void failValidation(SampleResult result, String failure) {
+        log.debug("{}: {}", result.getSampleLabel(), failure);
+        AssertionResult assertion = new AssertionResult(VALIDATION_ASSERTION_NAME);
+        assertion.setFailure(true);
+        assertion.setFailureMessage(failure);
+        result.addAssertionResult(assertion);
+        result.setSuccessful(false);
+        getMetrics().failures.increment();
+    }
+
+    /** Makes the actual request fail without being sent, as a browser would after a failed preflight.
+     * Pre-processors cannot skip the sampler, so this sets a protocol that JMeter cannot send (which it reverts after
+     * sampling, like any other change to the running sampler).
+     */
+    protected void blockRequest(HTTPSamplerBase sampler) {
+        log.debug("Blocking \"{}\" after failed preflight", sampler.getName());
+        sampler.setProtocol(BLOCKED_PROTOCOL);
+        final String path = sampler.getPath();
+        if (path.startsWith(HTTPConstants.PROTOCOL_HTTP + "://")
+                || path.startsWith(HTTPConstants.PROTOCOL_HTTPS + "://")) {
+            sampler.setPath(BLOCKED_PROTOCOL + path.substring(path.indexOf(':'))); // absolute URL would ignore protocol
+        }
+        getMetrics().blocked.increment();
+    }
+
+    /** Returns the listeners in scope of the given sampler, as JMeter would notify of the sampler's own results,
+     * or those in scope of this pre-processor for samplers that are not part of the test plan (e.g. warm-up URLs).
+     * Their positions are determined in one pass over the test tree by the first thread of each thread group,
+     * and each thread then finds them in its own clone of the tree by position when first needed.
+     */
+    protected List<SampleListener> getListeners(HTTPSamplerBase sampler) {
+        if (listeners == null) {
+            final JMeterContext context = getThreadContext();
+            final HashTree tree = context.getThread() == null ? null : context.getThread().getTestTree();
+            listeners = tree == null ? Collections.emptyMap()
+                : sharedListeners.computeIfAbsent(Collections.singletonList(context.getThreadGroup()),
+                    k -> TestPlanScope.scopesOfEach(tree,
+                        node -> node instanceof HTTPSamplerBase || node instanceof CorsPreProcessor,
+                        SampleListener.class))
+                    .resolve(tree);
+        }
+        List<SampleListener> scoped = listeners.get(sampler);
+        if (scoped == null) scoped = listeners.getOrDefault(this, Collections.emptyList());
+        return scoped;
+    }
+
+    /** Sends preflight requests for the samplers in scope and the configured warm-up URLs in the background,
+     * like a browser loading a single-page application may do, unless they are cached or already being made.
+     * The main requests will wait for any of these that are still in flight when they need them.
+     */
+    protected void warmUp() {
+        final PreflightCache cache = getPreflightCache();
+        for (HTTPSamplerBase sampler : getWarmUpSamplers()) {
+            final CorsProfile profile = CorsProfile.of(sampler, getCredentialsMode());
+            if (!profile.hasOrigin() || !profile.needsPreflight()) continue;
+            final PreflightCacheKey key;
+            try {
+                key = profile.getCacheKey(sampler, getIgnoreQueryString());
+            } catch (MalformedURLException e) {
+                log.warn("Invalid warm-up URL", e);
+                continue;
+            }
+            if (isInPreflightCache(key, profile.getMethod(), profile.getPreflightHeaders())) continue;
+            if (getNegativeCacheTtl() > 0 && cache.isFailing(key)) continue;
+
+            final String inFlightKey = inFlightKey(key, profile);
+            if (cache.startPreflight(inFlightKey) != null) continue;
+
+            final HTTPSamplerBase preflight = createPreflight(sampler, profile, getPreflightRequestHeaders(key, profile));
+            preflight.removeProperty(HTTPSamplerBase.COOKIE_MANAGER); // not thread-safe, and not sent with preflights
+            preflight.removeProperty(HTTPSamplerBase.CACHE_MANAGER);
+            if (getLightweightPreflight()) makeLightweight(preflight);
+            final List<SampleListener> scoped = getListeners(warmUpOriginals.getOrDefault(sampler, sampler));
+            getMetrics(); // before sending on another thread
+            try {
+                AsyncPreflightExecutor.get(getAsyncPoolSize()).execute(() -> {
+                    AsyncPreflightExecutor.closeConnectionsOnExit(preflight); // rather than after each request
+                    try {
+                        sendPreflight(key, profile, preflight, new PreflightResponse(), scoped, true);
+                    } catch (RuntimeException e) {
+                        log.warn("Warm-up preflight failed", e);
+                    } finally {
+                        cache.endPreflight(inFlightKey);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                cache.endPreflight(inFlightKey);
+            }
+        }
+    }
 
-        if (method.matches(allowedMethods) && preflightHeaders.isEmpty()) return; // simple request
+    /** Determines (once per thread) the samplers to make warm-up preflights for: the HTTP samplers in scope of this
+     * pre-processor, with their config elements applied, and one per warm-up URL (based on the first of those samplers).
+     */
+    protected List<HTTPSamplerBase> getWarmUpSamplers() {
+        if (warmUpSamplers == null) {
+            warmUpSamplers = new ArrayList<>();
+            final HashTree tree = getThreadContext().getThread().getTestTree();
+            for (Map.Entry<HTTPSamplerBase, HTTPSamplerBase> entry
+                    : TestPlanScope.configureSamplersInScope(TestPlanScope.pathTo(tree, this))) {
+                warmUpOriginals.put(entry.getValue(), entry.getKey());
+                warmUpSamplers.add(entry.getValue());
+            }
+            final HTTPSamplerBase template = warmUpSamplers.isEmpty() ? null : warmUpSamplers.get(0);
+            for (String line : getWarmUpUrls().split("\\R")) {
+                final String[] methodAndUrl = line.trim().split("\\s+", 2);
+                if (methodAndUrl[0].isEmpty()) continue;
+                if (template == null) {
+                    log.warn("No HTTP sampler in scope to make warm-up preflight requests for \"{}\"", line);
+                    break;
+                }
+                HTTPSamplerBase sampler = (HTTPSamplerBase) template.clone();
+                sampler.setMethod(methodAndUrl.length > 1 ? methodAndUrl[0] : HTTPConstants.GET);
+                sampler.setPath(methodAndUrl[methodAndUrl.length - 1]);
+                sampler.setName(sampler.getPath());
+                sampler.setArguments(new Arguments());
+                warmUpSamplers.add(sampler);
+            }
+        }
+        return warmUpSamplers;
+    }
 
+    /** Waits until another thread's preflight request for the same URL has completed, for at most the sampler's
+     * timeouts.
+     */
+    protected static void awaitPreflight(CountDownLatch pending, HTTPSamplerBase sampler) {
+        long timeout = (long) sampler.getConnectTimeout() + sampler.getResponseTimeout();
+        try {
+            if (!pending.await(timeout > 0 ? timeout : PREFLIGHT_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Timed out waiting for preflight made by another thread");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Builds the preflight request as a clone of the actual sampler. Only called when the preflight cache
+     * does not cover the actual request, as cloning the sampler is relatively expensive.
+     *
+     * @param sampler the actual HTTP request
+     * @param profile the actual request's CORS profile
+     * @param requestHeaders value for the "Access-Control-Request-Headers" header
+     * @return a sampler for the OPTIONS request
+     */
+    protected HTTPSamplerBase createPreflight(HTTPSamplerBase sampler, CorsProfile profile, String requestHeaders) {
+        JMeterContext context = getThreadContext();
         HTTPSamplerBase preflight = (HTTPSamplerBase) sampler.clone();
-        HeaderManager hm = preflight.getHeaderManager();
-        hm.removeHeaderNamed(AUTHORIZATION);
-        hm.removeHeaderNamed(ACCEPT);
-        hm.add(new Header(ACCEPT, "*/*"));
-        hm.add(new Header(ACCESS_CONTROL_REQUEST_METHOD, method));
-        hm.add(new Header(ACCESS_CONTROL_REQUEST_HEADERS, String.join(",", preflightHeaders)));
+        setPreflightHeaders(preflight.getHeaderManager(), profile, requestHeaders);
 
         preflight.setMethod(OPTIONS);
         preflight.setName(preflight.getName() + getPreflightLabelSuffix());
         preflight.setThreadContext(context);
         preflight.setThreadName(context.getThread().getThreadName());
+        return preflight;
+    }
 
-        if (isInPreflightCache(url, method, preflightHeaders)) {
-            log.debug("Preflight still cached, skipping.");
-            return;
+    protected static void setPreflightHeaders(HeaderManager hm, CorsProfile profile, String requestHeaders) {
+        hm.removeHeaderNamed(AUTHORIZATION);
+        hm.removeHeaderNamed(ACCEPT);
+        hm.add(new Header(ACCEPT, "*/*"));
+        hm.add(new Header(ACCESS_CONTROL_REQUEST_METHOD, profile.getMethod()));
+        hm.add(new Header(ACCESS_CONTROL_REQUEST_HEADERS, requestHeaders));
+    }
+
+    /** Returns the preflight request for the actual sampler: a new clone, or in lightweight mode the sampler's pooled
+     * preflight request, updated with the sampler's current URL, timeouts and headers.
+     */
+    protected HTTPSamplerBase getPreflight(HTTPSamplerBase sampler, CorsProfile profile, String requestHeaders) {
+        if (!getLightweightPreflight()) return createPreflight(sampler, profile, requestHeaders);
+
+        HTTPSamplerBase preflight = pooledPreflights.get(sampler);
+        if (preflight == null) {
+            preflight = createPreflight(sampler, profile, requestHeaders);
+            preflight.removeProperty(HTTPSamplerBase.COOKIE_MANAGER); // not sent with preflights
+            preflight.removeProperty(HTTPSamplerBase.CACHE_MANAGER);
+            makeLightweight(preflight);
+            pooledPreflights.put(sampler, preflight);
+            return preflight;
         }
-        SampleResult result = preflight.sample();
-        result.setThreadName(context.getThread().getThreadName());
-        addToPreflightCache(result);
-        notifier.notifyListeners(new SampleEvent(result, context.getThreadGroup().getName()), listeners);
+        for (String name : POOLED_PREFLIGHT_PROPERTIES) {
+            JMeterProperty property = sampler.getProperty(name);
+            if (property instanceof NullProperty) {
+                preflight.removeProperty(name);
+            } else {
+                preflight.setProperty(property.clone());
+            }
+        }
+        HeaderManager hm = (HeaderManager) sampler.getHeaderManager().clone();
+        setPreflightHeaders(hm, profile, requestHeaders);
+        preflight.setProperty(new TestElementProperty(HTTPSamplerBase.HEADER_MANAGER, hm));
+        preflight.setName(sampler.getName() + getPreflightLabelSuffix());
+        return preflight;
+    }
+
+    /** Turns off what a preflight request does not need: embedded resources, redirects and response digests */
+    protected static void makeLightweight(HTTPSamplerBase preflight) {
+        preflight.setImageParser(false);
+        preflight.setConcurrentDwn(false);
+        preflight.setFollowRedirects(false);
+        preflight.setAutoRedirects(false);
+        preflight.setMD5(false);
+    }
+
+    /** Releases the response body of a preflight result (once parsed), while keeping its size */
+    protected static void discardResponseData(SampleResult result) {
+        final long bytes = result.getBytesAsLong();
+        final long bodySize = result.getBodySizeAsLong();
+        result.setResponseData(NO_RESPONSE_DATA);
+        result.setBodySize(bodySize);
+        result.setBytes(bytes);
     }
 
     /**
      * @param h JMeter Header of the actual HTTP request
      * @return true iff the header is one that requires a preflight request
+     * @see PreflightHeaderClassifier
      */
     public static boolean isPreflightHeader(Header h) {
-        final String name = h.getName().toLowerCase();
-
-        if (name.matches(forbiddenHeaders)) return false;
-
-        if (name.matches(methodOverrideHeaders)
-                && h.getValue().toUpperCase().matches(forbiddenMethods))
-            return false;
-
-        String safePattern = safeListedHeaders.get(name);
-        if (safePattern != null) {
-            return !h.getValue().matches(safePattern);
-        }
-        return true;
+        return PreflightHeaderClassifier.isPreflightHeader(h.getName(), h.getValue());
     }
 
     public static Stream<Header> getHeaders(HeaderManager hm) {
@@ -182,72 +596,281 @@ public class CorsPreProcessor extends AbstractTestElement
      * "Access-Control-Request-Headers" preflight request header
      */
     public static Collection<String> getPreflightHeaders(HeaderManager hm) {
-        return getHeaders(hm)
-                .filter(CorsPreProcessor::isPreflightHeader)
-                .map(Header::getName)
-                .collect(Collectors.toList());
+        if (hm == null || hm.getHeaders() == null) return Collections.emptyList();
+        List<String> names = new ArrayList<>();
+        for (int i = 0, n = hm.size(); i < n; ++i) {
+            Header h = hm.get(i);
+            if (isPreflightHeader(h)) names.add(h.getName());
+        }
+        return names;
     }
 
-    protected boolean isInPreflightCache(String url, String method, Collection<String> headers) {
-        return (preflightCache.containsKey(ImmutableTriple.of(url, method.toUpperCase(), "")) ||
-                preflightCache.containsKey(ImmutableTriple.of(url, "*", ""))
-        ) && headers.stream().map(String::toLowerCase).allMatch(header ->
-                preflightCache.containsKey(ImmutableTriple.of(url, "", header)) ||
-                preflightCache.containsKey(ImmutableTriple.of(url, "", "*"))
-                        && !header.matches(nonWildcardHeaders));
+    /** Looks up the preflight cache according to the cache scope, i.e. either this thread's own cache (as per default),
+     * or one that is shared with other threads of the same thread group or all threads.
+     */
+    protected PreflightCache getPreflightCache() {
+        if (preflightCache == null) {
+            final String scope = getCacheScope();
+            if (CACHE_SCOPE_GLOBAL.equals(scope)) {
+                preflightCache = sharedCaches.computeIfAbsent(CACHE_SCOPE_GLOBAL, k -> newSharedCache());
+            } else if (CACHE_SCOPE_THREAD_GROUP.equals(scope)) {
+                preflightCache = sharedCaches.computeIfAbsent(getThreadContext().getThreadGroup(), k -> newSharedCache());
+            } else {
+                preflightCache = new PreflightCache(getBrowser().getMaxEntries(getCacheMaxSize()));
+                startWarming(getWarmPercentage());
+            }
+        }
+        return preflightCache;
+    }
+
+    /** Creates a shared cache, with all policies of the snapshot loaded at test start (if any), as this only happens
+     * once per test.
+     */
+    protected PreflightCache newSharedCache() {
+        PreflightCache cache = new PreflightCache(getCacheMaxSize(), SHARED_CACHE_CONCURRENCY);
+        final PreflightSnapshot snapshot = loadedSnapshots.get(getSnapshotFile());
+        if (snapshot != null) snapshot.warm(cache);
+        return cache;
     }
 
-    protected void addToPreflightCache(SampleResult result) {
-        long maxAge = getMaxAge(result);
+    /** Decides whether this thread's new or cleared cache is warmed from the snapshot loaded at test start (if any),
+     * with the given probability, i.e. the percentage of users that are returning ones with a warm cache.
+     * Rather than adding all policies now, each is added when first missed (see {@link #warmFromSnapshot}), so that
+     * clearing and warming at the start of each iteration adds neither a pause nor a burst of garbage.
+     */
+    protected void startWarming(int percentage) {
+        final PreflightSnapshot snapshot = loadedSnapshots.get(getSnapshotFile());
+        warmSnapshot = snapshot != null && ThreadLocalRandom.current().nextInt(100) < percentage ? snapshot : null;
+        warmedAt = System.currentTimeMillis();
+        if (warmSnapshot != null) log.debug("Warming preflight cache from {} snapshot entries", snapshot.size());
+    }
+
+    /** Adds the snapshot's policy for a key that was missed to the cache, as if it had been added when warming started
+     * (so it is not added if it would have expired, or if the key is cached already).
+     *
+     * @return true iff the policy was added
+     */
+    protected boolean warmFromSnapshot(PreflightCache cache, PreflightCacheKey key) {
+        final PreflightSnapshot.Entry entry = warmSnapshot.get(key);
+        if (entry == null) return false;
+        final long expiry = warmedAt + TimeUnit.SECONDS.toMillis(entry.getMaxAge());
+        if (expiry <= System.currentTimeMillis()) return false;
+        final int evicted = cache.putIfAbsent(key, entry.getMethods(), entry.getHeaders(), expiry);
+        if (evicted > 0) getMetrics().evictions.add(evicted);
+        return evicted >= 0;
+    }
+
+    /** Looks up the metrics of this thread's thread group */
+    protected CorsMetrics getMetrics() {
+        if (metrics == null) {
+            final AbstractThreadGroup threadGroup = getThreadContext().getThreadGroup();
+            metrics = CorsMetrics.get(threadGroup == null ? null : threadGroup.getName());
+        }
+        return metrics;
+    }
+
+    protected boolean isSharedCache() {
+        final String scope = getCacheScope();
+        return CACHE_SCOPE_GLOBAL.equals(scope) || CACHE_SCOPE_THREAD_GROUP.equals(scope);
+    }
+
+    protected boolean isInPreflightCache(PreflightCacheKey key, String method, Collection<String> headers) {
+        final PreflightCache cache = getPreflightCache();
+        return cache.contains(key, method, headers)
+                || warmSnapshot != null && warmFromSnapshot(cache, key) && cache.contains(key, method, headers);
+    }
+
+    /** Caches the policy of a (parsed) preflight response under the key of the actual request (rather than the preflight's
+     * URL), so that lookups need not rebuild the URL.
+     */
+    protected void addToPreflightCache(PreflightCacheKey key, SampleResult result, PreflightResponse response) {
+        long maxAge = getMaxAge(response);
         log.debug("Caching \"{}\" for {} seconds", result.getSampleLabel(), maxAge);
         long expiry = Instant.now().plusSeconds(maxAge).toEpochMilli();
-        final String url = result.getUrlAsString();
-        getAllowHeaders(result).forEach(header ->
-                preflightCache.put(ImmutableTriple.of(url, "", header.toLowerCase()), expiry));
-        getAllowMethods(result).forEach(method ->
-                preflightCache.put(ImmutableTriple.of(url, method.toUpperCase(), ""), expiry));
+        int evicted = getPreflightCache().put(key, response.getAllowMethods(), response.getAllowHeaders(), expiry);
+        final PreflightSnapshot learned = learnedSnapshots.get(getSnapshotFile());
+        if (learned != null) learned.record(key, response.getAllowMethods(), response.getAllowHeaders(), maxAge);
+        getMetrics().maxAge.record(maxAge);
+        getMetrics().evictions.add(evicted);
+    }
+
+    /** Extracts the Access-Control-* response headers of a preflight request into the given (reusable) instance,
+     * logging any invalid values.
+     */
+    protected static PreflightResponse parseResponse(SampleResult result, PreflightResponse response) {
+        response.parse(result.getResponseHeaders());
+        if (response.getWarning() != null) {
+            log.warn("{}: {}", result.getSampleLabel(), response.getWarning());
+        }
+        return response;
     }
 
     /**
      * @param result JMeter SampleResult of a preflight request
      * @return duration (in seconds) until preflight expiry as per Access-Control-Max-Age response header,
-     * or the default of 5 seconds if the header is not received
+     * or the default of 5 seconds if the header is not received or invalid, limited as per the browser profile
      */
     public long getMaxAge(SampleResult result) {
-        final Matcher m = MAX_AGE_HEADER_PATTERN.matcher(result.getResponseHeaders());
-        return m.find() ? Long.parseLong(m.group(1)) : getDefaultCacheExpiry();
+        return getMaxAge(parseResponse(result, new PreflightResponse()));
+    }
+
+    protected long getMaxAge(PreflightResponse response) {
+        final BrowserProfile browser = getBrowser();
+        return browser.capMaxAge(response.getMaxAge(browser.getDefaultMaxAge(getDefaultCacheExpiry())));
+    }
+
+    protected BrowserProfile getBrowser() {
+        return BrowserProfile.of(getBrowserProfile());
     }
 
     public List<String> getAllowHeaders(SampleResult result) {
-        final Matcher m = ALLOW_HEADERS_HEADER_PATTERN.matcher(result.getResponseHeaders());
-        return m.find() ? Arrays.asList(m.group(1).split("[\\s,]+")) : Collections.emptyList();
+        return parseResponse(result, new PreflightResponse()).getAllowHeaders();
     }
 
     public List<String> getAllowMethods(SampleResult result) {
-        final Matcher m = ALLOW_METHODS_HEADER_PATTERN.matcher(result.getResponseHeaders());
-        return m.find() ? Arrays.asList(m.group(1).split("[\\s,]+")) : Collections.emptyList();
+        return parseResponse(result, new PreflightResponse()).getAllowMethods();
     }
 
-    /** When the JMeter Thread is started, find all SampleListeners in Test Plan, so they can be notified
-     * when the preflight request is made.
+    /** When the JMeter Thread is started and batching, learn the preflight headers of all samplers in scope
+     * (once per thread group). The listeners to notify of preflight requests are only determined when first needed.
      */
     @Override
     public void threadStarted() {
-        SearchByClass<SampleListener> listenersSearch = new SearchByClass<>(SampleListener.class);
-        getThreadContext().getThread().getTestTree().traverse(listenersSearch);
-        listeners = listenersSearch.getSearchResults().stream().distinct().collect(Collectors.toList());
+        final HashTree tree = getThreadContext().getThread().getTestTree();
+        if (getBatchPreflightHeaders()) {
+            batches = sharedBatches.computeIfAbsent(
+                    Arrays.asList(getThreadContext().getThreadGroup(), TestPlanScope.positionOf(tree, this)),
+                    k -> learnPreflightHeaders(tree));
+        }
+    }
+
+    /** Finds the headers that require preflight for each URL and method of the HTTP samplers in scope,
+     * with their config elements applied. Samplers whose URLs depend on variables that are not yet defined
+     * are learned from when they are sampled.
+     */
+    protected PreflightBatches learnPreflightHeaders(HashTree tree) {
+        PreflightBatches learned = new PreflightBatches();
+        for (Map.Entry<HTTPSamplerBase, HTTPSamplerBase> entry
+                : TestPlanScope.configureSamplersInScope(TestPlanScope.pathTo(tree, this))) {
+            HTTPSamplerBase sampler = entry.getKey(), configured = entry.getValue();
+            CorsProfile profile = CorsProfile.of(configured, getCredentialsMode());
+            if (!profile.hasOrigin() || !profile.needsPreflight()) continue;
+            try {
+                learned.learn(profile.getCacheKey(configured, getIgnoreQueryString()).getUrl(),
+                        profile.getMethod(), profile.getPreflightHeaders());
+            } catch (MalformedURLException e) {
+                log.debug("Cannot determine URL of \"{}\" yet", sampler.getName());
+            }
+        }
+        return learned;
     }
 
     @Override
-    public void threadFinished() {}
+    public void threadFinished() {
+        notifyPending();
+    }
 
+    @Override
+    public void testStarted() {
+        sharedCaches.clear();
+        sharedBatches.clear();
+        sharedListeners.clear();
+        CorsMetrics.reset();
+        CorsMetrics.startPublishing(getMetricsInterval(), getMetricsFile());
+        loadSnapshot();
+    }
+
+    /** Loads the snapshot file (unless already loaded by another CORS Pre-Processor), and starts learning a new one */
+    protected void loadSnapshot() {
+        final String file = getSnapshotFile();
+        if (file.isEmpty()) return;
+        learnedSnapshots.put(file, new PreflightSnapshot());
+        loadedSnapshots.computeIfAbsent(file, f -> {
+            try {
+                PreflightSnapshot snapshot = PreflightSnapshot.load(Paths.get(f));
+                log.info("Loaded {} preflight policies from {}", snapshot.size(), f);
+                return snapshot;
+            } catch (NoSuchFileException e) {
+                log.info("No preflight snapshot {} yet, starting cold", f);
+            } catch (IOException e) {
+                log.warn("Cannot load preflight snapshot {}", f, e);
+            }
+            return null;
+        });
+    }
+
+    /** Saves the policies learned during the test to the snapshot file (once, if several CORS Pre-Processors
+     * use the same file), along with those loaded from it that were not requested again.
+     */
+    protected void saveSnapshot() {
+        final String file = getSnapshotFile();
+        final PreflightSnapshot loaded = loadedSnapshots.remove(file);
+        final PreflightSnapshot learned = file.isEmpty() ? null : learnedSnapshots.remove(file);
+        if (learned == null) return;
+        if (loaded != null) learned.addMissing(loaded);
+        if (learned.size() == 0) return;
+        try {
+            learned.save(Paths.get(file));
+            log.info("Saved {} preflight policies to {}", learned.size(), file);
+        } catch (IOException e) {
+            log.warn("Cannot save preflight snapshot {}", file, e);
+        }
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        sharedCaches.clear();
+        sharedBatches.clear();
+        sharedListeners.clear();
+        AsyncPreflightExecutor.shutdown();
+        CorsMetrics.stopPublishing(getMetricsFile());
+        saveSnapshot();
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
+    /** Clears this thread's preflight cache at the start of an iteration (shared caches are never cleared, as
+     * they are not specific to one user), then starts any warm-up preflight requests.
+     */
     @Override
     public void testIterationStart(LoopIterationEvent event) {
-        boolean sameUser = getThreadContext().getVariables().isSameUserOnNextIteration();
+        notifyPending();
+        if (!isSharedCache()) clearPreflightCache();
+        if (getAsyncPreflight()) warmUp();
+    }
+
+    /** Clears this thread's preflight cache as per the clearing policy: entirely if the next iteration is a new user,
+     * every so many iterations or at random (e.g. to model a ratio of returning users), otherwise only entries older
+     * than the given age (if any).
+     * Clearing is logical, with the entries being removed incrementally during the iteration.
+     */
+    protected void clearPreflightCache() {
+        final boolean sameUser = getThreadContext().getVariables().isSameUserOnNextIteration();
+        final int every = getClearEveryIterations();
+        final int percentage = getClearPercentage();
+        ++iterationsSinceClear;
         if (getClearEachIteration().isEmpty() && !sameUser
-                || "true".equalsIgnoreCase(getClearEachIteration())) {
+                || "true".equalsIgnoreCase(getClearEachIteration())
+                || every > 0 && iterationsSinceClear > every
+                || percentage > 0 && ThreadLocalRandom.current().nextInt(100) < percentage) {
             log.debug("Clearing preflight cache");
-            preflightCache.clear();
+            getPreflightCache().clearInsertedBefore(System.nanoTime());
+            iterationsSinceClear = 1;
+            startWarming(getWarmPercentage()); // next user may be a returning one
+        } else if (getClearOlderThan() > 0) {
+            log.debug("Clearing preflight cache entries older than {} seconds", getClearOlderThan());
+            getPreflightCache().clearInsertedBefore(System.nanoTime() - TimeUnit.SECONDS.toNanos(getClearOlderThan()));
+            if (System.currentTimeMillis() - warmedAt > TimeUnit.SECONDS.toMillis(getClearOlderThan())) {
+                warmSnapshot = null; // policies not yet added from it would have been cleared too
+            }
         }
     }
 
@@ -257,5 +880,49 @@ public class CorsPreProcessor extends AbstractTestElement
     public void setDefaultCacheExpiry(long seconds) { setProperty(DEFAULT_CACHE_EXPIRY, seconds); }
     public String getClearEachIteration() { return getPropertyAsString(CLEAR_EACH_ITERATION); }
     public void setClearEachIteration(String clear) { setProperty(CLEAR_EACH_ITERATION, clear); }
+    public int getCacheMaxSize() { return getPropertyAsInt(CACHE_MAX_SIZE); }
+    public void setCacheMaxSize(int size) { setProperty(CACHE_MAX_SIZE, size); }
+    public String getCacheScope() { return getPropertyAsString(CACHE_SCOPE); }
+    public void setCacheScope(String scope) { setProperty(CACHE_SCOPE, scope); }
+    public boolean getAsyncPreflight() { return getPropertyAsBoolean(ASYNC_PREFLIGHT); }
+    public void setAsyncPreflight(boolean async) { setProperty(ASYNC_PREFLIGHT, async); }
+    public String getWarmUpUrls() { return getPropertyAsString(WARM_UP_URLS); }
+    public void setWarmUpUrls(String urls) { setProperty(WARM_UP_URLS, urls); }
+    public int getAsyncPoolSize() { return getPropertyAsInt(ASYNC_POOL_SIZE); }
+    public void setAsyncPoolSize(int size) { setProperty(ASYNC_POOL_SIZE, size); }
+    public boolean getBatchPreflightHeaders() { return getPropertyAsBoolean(BATCH_PREFLIGHT_HEADERS); }
+    public void setBatchPreflightHeaders(boolean batch) { setProperty(BATCH_PREFLIGHT_HEADERS, batch); }
+    public boolean getIgnoreQueryString() { return getPropertyAsBoolean(IGNORE_QUERY_STRING); }
+    public void setIgnoreQueryString(boolean ignore) { setProperty(IGNORE_QUERY_STRING, ignore); }
+    public long getMetricsInterval() { return getPropertyAsLong(METRICS_INTERVAL); }
+    public void setMetricsInterval(long seconds) { setProperty(METRICS_INTERVAL, seconds); }
+    public String getMetricsFile() { return getPropertyAsString(METRICS_FILE); }
+    public void setMetricsFile(String file) { setProperty(METRICS_FILE, file); }
+    public boolean getLightweightPreflight() { return getPropertyAsBoolean(LIGHTWEIGHT_PREFLIGHT); }
+    public void setLightweightPreflight(boolean lightweight) { setProperty(LIGHTWEIGHT_PREFLIGHT, lightweight); }
+    public String getSnapshotFile() { return getPropertyAsString(SNAPSHOT_FILE); }
+    public void setSnapshotFile(String file) { setProperty(SNAPSHOT_FILE, file); }
+    public int getWarmPercentage() { return getPropertyAsInt(WARM_PERCENTAGE); }
+    public void setWarmPercentage(int percentage) { setProperty(WARM_PERCENTAGE, percentage); }
+    public String getCredentialsMode() { return getPropertyAsString(CREDENTIALS_MODE); }
+    public void setCredentialsMode(String mode) { setProperty(CREDENTIALS_MODE, mode); }
+    public String getBrowserProfile() { return getPropertyAsString(BROWSER_PROFILE); }
+    public void setBrowserProfile(String profile) { setProperty(BROWSER_PROFILE, profile); }
+    public boolean getValidatePreflight() { return getPropertyAsBoolean(VALIDATE_PREFLIGHT); }
+    public void setValidatePreflight(boolean validate) { setProperty(VALIDATE_PREFLIGHT, validate); }
+    public boolean getBlockFailedRequests() { return getPropertyAsBoolean(BLOCK_FAILED_REQUESTS); }
+    public void setBlockFailedRequests(boolean block) { setProperty(BLOCK_FAILED_REQUESTS, block); }
+    public long getNegativeCacheTtl() { return getPropertyAsLong(NEGATIVE_CACHE_TTL); }
+    public void setNegativeCacheTtl(long seconds) { setProperty(NEGATIVE_CACHE_TTL, seconds); }
+    public boolean getNegativeCacheBackoff() { return getPropertyAsBoolean(NEGATIVE_CACHE_BACKOFF); }
+    public void setNegativeCacheBackoff(boolean backoff) { setProperty(NEGATIVE_CACHE_BACKOFF, backoff); }
+    public long getNegativeCacheMaxTtl() { return getPropertyAsLong(NEGATIVE_CACHE_MAX_TTL); }
+    public void setNegativeCacheMaxTtl(long seconds) { setProperty(NEGATIVE_CACHE_MAX_TTL, seconds); }
+    public int getClearEveryIterations() { return getPropertyAsInt(CLEAR_EVERY_ITERATIONS); }
+    public void setClearEveryIterations(int iterations) { setProperty(CLEAR_EVERY_ITERATIONS, iterations); }
+    public int getClearPercentage() { return getPropertyAsInt(CLEAR_PERCENTAGE); }
+    public void setClearPercentage(int percentage) { setProperty(CLEAR_PERCENTAGE, percentage); }
+    public long getClearOlderThan() { return getPropertyAsLong(CLEAR_OLDER_THAN); }
+    public void setClearOlderThan(long seconds) { setProperty(CLEAR_OLDER_THAN, seconds); }
 
 }
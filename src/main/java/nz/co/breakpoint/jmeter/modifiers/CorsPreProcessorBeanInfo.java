@@ -2,6 +2,8 @@ package nz.co.breakpoint.jmeter.modifiers;
 
 import java.beans.PropertyDescriptor;
 import org.apache.jmeter.testbeans.BeanInfoSupport;
+import org.apache.jmeter.testbeans.gui.FileEditor;
+import org.apache.jmeter.testbeans.gui.TextAreaEditor;
 
 import static nz.co.breakpoint.jmeter.modifiers.CorsPreProcessor.*;
 
@@ -11,7 +13,7 @@ public class CorsPreProcessorBeanInfo extends BeanInfoSupport {
         super(CorsPreProcessor.class);
 
         createPropertyGroup("Preflight", new String[]{
-                PREFLIGHT_LABEL_SUFFIX
+                PREFLIGHT_LABEL_SUFFIX, CREDENTIALS_MODE, BATCH_PREFLIGHT_HEADERS, LIGHTWEIGHT_PREFLIGHT
         });
         PropertyDescriptor p;
 
@@ -19,17 +21,135 @@ public class CorsPreProcessorBeanInfo extends BeanInfoSupport {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, PREFLIGHT_LABEL_SUFFIX_DEFAULT);
 
+        p = property(CREDENTIALS_MODE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(NOT_OTHER, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setValue(TAGS, new String[]{ "", CREDENTIALS_MODE_OMIT, CREDENTIALS_MODE_SAME_ORIGIN, CREDENTIALS_MODE_INCLUDE });
+
+        p = property(BATCH_PREFLIGHT_HEADERS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property(LIGHTWEIGHT_PREFLIGHT);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        createPropertyGroup("Validation", new String[]{
+                VALIDATE_PREFLIGHT, BLOCK_FAILED_REQUESTS
+        });
+
+        p = property(VALIDATE_PREFLIGHT);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property(BLOCK_FAILED_REQUESTS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        createPropertyGroup("WarmUp", new String[]{
+                ASYNC_PREFLIGHT, WARM_UP_URLS, ASYNC_POOL_SIZE
+        });
+
+        p = property(ASYNC_PREFLIGHT);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property(WARM_UP_URLS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(TextAreaEditor.class);
+
+        p = property(ASYNC_POOL_SIZE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 8);
+
         createPropertyGroup("Cache", new String[]{
-                CLEAR_EACH_ITERATION, DEFAULT_CACHE_EXPIRY
+                BROWSER_PROFILE, CACHE_SCOPE, CLEAR_EACH_ITERATION, CLEAR_EVERY_ITERATIONS, CLEAR_PERCENTAGE,
+                CLEAR_OLDER_THAN, DEFAULT_CACHE_EXPIRY, CACHE_MAX_SIZE, IGNORE_QUERY_STRING
         });
 
+        p = property(BROWSER_PROFILE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(NOT_OTHER, Boolean.TRUE);
+        p.setValue(DEFAULT, BrowserProfile.CUSTOM.getDisplayName());
+        p.setValue(TAGS, BrowserProfile.displayNames());
+
+        p = property(CACHE_SCOPE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(NOT_OTHER, Boolean.TRUE);
+        p.setValue(DEFAULT, CACHE_SCOPE_THREAD);
+        p.setValue(TAGS, new String[]{ CACHE_SCOPE_THREAD, CACHE_SCOPE_THREAD_GROUP, CACHE_SCOPE_GLOBAL });
+
         p = property(CLEAR_EACH_ITERATION);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "");
         p.setValue(TAGS, new String[]{ "", "True", "False" });
 
+        p = property(CLEAR_EVERY_ITERATIONS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0);
+
+        p = property(CLEAR_PERCENTAGE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0);
+
+        p = property(CLEAR_OLDER_THAN);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0L);
+
         p = property(DEFAULT_CACHE_EXPIRY);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, 5L);
+
+        p = property(CACHE_MAX_SIZE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0);
+
+        p = property(IGNORE_QUERY_STRING);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        createPropertyGroup("NegativeCache", new String[]{
+                NEGATIVE_CACHE_TTL, NEGATIVE_CACHE_BACKOFF, NEGATIVE_CACHE_MAX_TTL
+        });
+
+        p = property(NEGATIVE_CACHE_TTL);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0L);
+
+        p = property(NEGATIVE_CACHE_BACKOFF);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, Boolean.FALSE);
+
+        p = property(NEGATIVE_CACHE_MAX_TTL);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 300L);
+
+        createPropertyGroup("Snapshot", new String[]{
+                SNAPSHOT_FILE, WARM_PERCENTAGE
+        });
+
+        p = property(SNAPSHOT_FILE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(FileEditor.class);
+
+        p = property(WARM_PERCENTAGE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 100);
+
+        createPropertyGroup("Metrics", new String[]{
+                METRICS_INTERVAL, METRICS_FILE
+        });
+
+        p = property(METRICS_INTERVAL);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 0L);
+
+        p = property(METRICS_FILE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(FileEditor.class);
     }
 }
@@ -0,0 +1,145 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.apache.jmeter.config.Argument;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
+import org.apache.jmeter.protocol.http.sampler.HTTPSamplerBase;
+
+/** The CORS-relevant properties of an HTTP sampler, i.e. whether it requires a preflight request and with which headers.
+ * Profiles are computed once per sampler and reused for as long as the sampler's method, URL components and (resolved)
+ * headers remain the same, which is checked by comparing them to a fingerprint without allocating.
+ * This also allows the preflight cache key to be memoized, rather than building the URL for every request.
+ */
+public final class CorsProfile {
+
+    static final String COOKIE = "Cookie";
+
+    /** Number of fingerprint fields before the headers: method, protocol, domain, port and path */
+    static final int FIXED_FIELDS = 5;
+
+    /** Fixed fields, followed by name and value of each header and then of each argument, in order */
+    final String[] fingerprint;
+    final int headerCount;
+
+    final boolean hasOrigin;
+    final String origin;
+    final boolean credentials;
+    final boolean needsPreflight;
+    final String method;
+    final List<String> preflightHeaders;
+    /** Value for the "Access-Control-Request-Headers" preflight request header */
+    final String requestHeaders;
+
+    private PreflightCacheKey cacheKey;
+    private boolean cacheKeyIgnoresQuery;
+
+    private CorsProfile(String[] fingerprint, int headerCount, String origin, boolean credentials,
+            List<String> preflightHeaders) {
+        this.fingerprint = fingerprint;
+        this.headerCount = headerCount;
+        this.hasOrigin = origin != null;
+        this.origin = origin;
+        this.credentials = credentials;
+        this.method = fingerprint[0];
+        this.preflightHeaders = Collections.unmodifiableList(preflightHeaders);
+        this.requestHeaders = String.join(",", preflightHeaders);
+        this.needsPreflight = !method.matches(CorsPreProcessor.allowedMethods) || !preflightHeaders.isEmpty();
+    }
+
+    /**
+     * @param sampler the actual HTTP request
+     * @param credentialsMode the request's credentials mode as per the Fetch standard ("omit", "same-origin" or
+     * "include"), or empty to include credentials iff the request sends cookies (by header or cookie manager)
+     * @return the sampler's profile as per its current method, URL and headers
+     */
+    public static CorsProfile of(HTTPSamplerBase sampler, String credentialsMode) {
+        final HeaderManager hm = sampler.getHeaderManager();
+        final int n = hm == null || hm.getHeaders() == null ? 0 : hm.size();
+        final Arguments args = sampler.getArguments();
+        final int m = args == null ? 0 : args.getArgumentCount();
+        final String[] fingerprint = new String[FIXED_FIELDS + 2 * n + 2 * m];
+        fingerprint[0] = sampler.getMethod();
+        fingerprint[1] = sampler.getProtocol();
+        fingerprint[2] = sampler.getDomain();
+        fingerprint[3] = sampler.getPropertyAsString(HTTPSamplerBase.PORT);
+        fingerprint[4] = sampler.getPath();
+
+        final boolean fromCookies = credentialsMode.isEmpty();
+        String origin = null;
+        boolean credentials = CorsPreProcessor.CREDENTIALS_MODE_INCLUDE.equals(credentialsMode)
+                || fromCookies && sampler.getCookieManager() != null; // cross-origin, so "same-origin" omits them
+        List<String> preflightHeaders = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            Header h = hm.get(i);
+            fingerprint[FIXED_FIELDS + 2 * i] = h.getName();
+            fingerprint[FIXED_FIELDS + 1 + 2 * i] = h.getValue();
+            if (CorsPreProcessor.ORIGIN.equalsIgnoreCase(h.getName())) origin = h.getValue();
+            if (fromCookies && COOKIE.equalsIgnoreCase(h.getName())) credentials = true;
+            if (CorsPreProcessor.isPreflightHeader(h)) preflightHeaders.add(h.getName());
+        }
+        for (int i = 0, offset = FIXED_FIELDS + 2 * n; i < m; ++i) {
+            Argument a = args.getArgument(i);
+            fingerprint[offset + 2 * i] = a.getName();
+            fingerprint[offset + 1 + 2 * i] = a.getValue();
+        }
+        return new CorsProfile(fingerprint, n, origin, credentials, preflightHeaders);
+    }
+
+    /**
+     * @param sampler the actual HTTP request
+     * @return true iff the sampler's current method, URL and headers are the ones this profile was computed from
+     */
+    public boolean matches(HTTPSamplerBase sampler) {
+        final HeaderManager hm = sampler.getHeaderManager();
+        final int n = hm == null || hm.getHeaders() == null ? 0 : hm.size();
+        final Arguments args = sampler.getArguments();
+        final int m = args == null ? 0 : args.getArgumentCount();
+        if (n != headerCount || fingerprint.length != FIXED_FIELDS + 2 * n + 2 * m
+                || !fingerprint[0].equals(sampler.getMethod())
+                || !fingerprint[1].equals(sampler.getProtocol())
+                || !fingerprint[2].equals(sampler.getDomain())
+                || !fingerprint[3].equals(sampler.getPropertyAsString(HTTPSamplerBase.PORT))
+                || !fingerprint[4].equals(sampler.getPath())) return false;
+
+        for (int i = 0; i < n; ++i) {
+            Header h = hm.get(i);
+            if (!fingerprint[FIXED_FIELDS + 2 * i].equals(h.getName())
+                    || !fingerprint[FIXED_FIELDS + 1 + 2 * i].equals(h.getValue())) return false;
+        }
+        for (int i = 0, offset = FIXED_FIELDS + 2 * n; i < m; ++i) {
+            Argument a = args.getArgument(i);
+            if (!Objects.equals(fingerprint[offset + 2 * i], a.getName())
+                    || !Objects.equals(fingerprint[offset + 1 + 2 * i], a.getValue())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param sampler the actual HTTP request this profile was computed from
+     * @param ignoreQuery whether to exclude the query string from the key
+     * @return the preflight cache key of the request (memoized)
+     * @throws MalformedURLException if the sampler's URL is invalid
+     */
+    public PreflightCacheKey getCacheKey(HTTPSamplerBase sampler, boolean ignoreQuery) throws MalformedURLException {
+        if (cacheKey == null || cacheKeyIgnoresQuery != ignoreQuery) {
+            cacheKey = PreflightCacheKey.of(origin, sampler.getUrl(), credentials, ignoreQuery);
+            cacheKeyIgnoresQuery = ignoreQuery;
+        }
+        return cacheKey;
+    }
+
+    public boolean hasOrigin() { return hasOrigin; }
+    public String getOrigin() { return origin; }
+    public boolean hasCredentials() { return credentials; }
+    public boolean needsPreflight() { return needsPreflight; }
+    public String getMethod() { return method; }
+    public Collection<String> getPreflightHeaders() { return preflightHeaders; }
+    public String getRequestHeaders() { return requestHeaders; }
+}
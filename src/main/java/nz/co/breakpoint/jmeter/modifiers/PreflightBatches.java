@@ -0,0 +1,47 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/** Learns which headers require preflight for each URL and method, so that a single preflight request can cover
+ * all header combinations (rather than one preflight request per combination).
+ * Thread-safe, so it can be shared by all threads of a thread group.
+ */
+public class PreflightBatches {
+
+    protected final ConcurrentHashMap<String, Set<String>> headersByRequest = new ConcurrentHashMap<>();
+
+    protected static String key(String url, String method) {
+        return method.toUpperCase() + " " + url;
+    }
+
+    /**
+     * @param url URL of an actual request
+     * @param method method of the actual request
+     * @param headers names of the actual request's headers that require preflight
+     */
+    public void learn(String url, String method, Collection<String> headers) {
+        headersByRequest.computeIfAbsent(key(url, method), k -> new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER))
+                .addAll(headers);
+    }
+
+    /**
+     * @param url URL of an actual request
+     * @param method method of the actual request
+     * @param profile profile of the actual request
+     * @return value for the "Access-Control-Request-Headers" preflight request header that covers the actual request
+     * as well as all others learned for the same URL and method
+     */
+    public String getRequestHeaders(String url, String method, CorsProfile profile) {
+        Set<String> learned = headersByRequest.get(key(url, method));
+        if (learned == null) return profile.getRequestHeaders();
+
+        Set<String> union = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        union.addAll(learned);
+        union.addAll(profile.getPreflightHeaders());
+        return String.join(",", union);
+    }
+}
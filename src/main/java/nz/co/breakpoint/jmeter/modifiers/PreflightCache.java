@@ -0,0 +1,366 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToLongFunction;
+
+/** Simulates a browser's CORS-preflight cache.
+ * Holds one entry per {@link PreflightCacheKey} (origin, URL and credentials mode) with the allowed methods and headers
+ * and a single expiry time, or with the failure state of the last preflight (if negatively cached).
+ * Lookups and insertions are O(1): expired entries are removed when they are looked up, and at most one
+ * least recently used or expired entry is evicted per insertion (rather than scanning all entries on each access).
+ * Entries are spread over independently locked segments, so a cache can be shared by many threads.
+ * The maximum size applies to the total, with the least recently used entry of the inserting segment being evicted
+ * (which is the new entry itself if the segment holds no other).
+ * Clearing is logical and O(1) too: entries inserted before a cut-off time are treated as absent, and removed a few at a
+ * time by later operations, so that clearing a large cache causes neither a pause nor a burst of garbage.
+ *
+ * @see <a href="https://fetch.spec.whatwg.org/#cors-preflight-cache">CORS-preflight cache</a>
+ */
+public class PreflightCache {
+
+    /** Methods that are stored as bits rather than strings */
+    static final String[] STANDARD_METHODS = { "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS" };
+
+    static final String[] NON_WILDCARD_HEADERS = CorsPreProcessor.nonWildcardHeaders.split("\\|");
+
+    static final String[] NONE = {};
+
+    /** Maximum number of cleared entries removed per operation */
+    static final int SWEEP_BATCH = 4;
+
+    /** No entries cleared */
+    static final long NO_CUTOFF = Long.MIN_VALUE;
+
+    /** Cached preflight policy for one origin, URL and credentials mode.
+     * Allowed standard methods are held in a bit set, any other methods and the allowed header names are held in
+     * small sorted arrays of interned strings, so that lookups neither allocate nor hash.
+     */
+    static class CacheEntry {
+        int methodBits;
+        String[] otherMethods = NONE; // upper case, sorted case-insensitively
+        String[] headers = NONE; // lower case, sorted case-insensitively
+        boolean anyMethod, anyHeader;
+        long expiry; // epoch millis
+        long inserted = System.nanoTime(); // or last updated
+        /** Consecutive failed preflights, in which case the entry holds no policy, only the failure state */
+        int failures;
+        long failedUntil; // epoch millis
+
+        boolean isExpired(long now) { return now >= expiry; }
+
+        boolean isCleared(long cutoff) { return inserted < cutoff; }
+
+        boolean allowsMethod(String method) {
+            if (anyMethod) return true;
+            final int i = standardMethodIndex(method);
+            return i >= 0 ? (methodBits & 1 << i) != 0
+                    : Arrays.binarySearch(otherMethods, method, String.CASE_INSENSITIVE_ORDER) >= 0;
+        }
+
+        boolean allowsHeader(String header) {
+            return Arrays.binarySearch(headers, header, String.CASE_INSENSITIVE_ORDER) >= 0
+                    || anyHeader && !isNonWildcardHeader(header);
+        }
+
+        /** @param wildcard whether "*" allows any method, rather than being a method name (as for credentialed requests) */
+        void addMethods(Collection<String> methods, boolean wildcard) {
+            Set<String> others = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            others.addAll(Arrays.asList(otherMethods));
+            for (String method : methods) {
+                if (wildcard && "*".equals(method)) {
+                    anyMethod = true;
+                    continue;
+                }
+                final int i = standardMethodIndex(method);
+                if (i >= 0) {
+                    methodBits |= 1 << i;
+                } else {
+                    others.add(method.toUpperCase().intern());
+                }
+            }
+            otherMethods = others.toArray(NONE);
+        }
+
+        /** @param wildcard whether "*" allows any header, rather than being a header name (as for credentialed requests) */
+        void addHeaders(Collection<String> names, boolean wildcard) {
+            Set<String> all = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            all.addAll(Arrays.asList(headers));
+            for (String name : names) {
+                if (wildcard && "*".equals(name)) {
+                    anyHeader = true;
+                } else {
+                    all.add(name.toLowerCase().intern());
+                }
+            }
+            headers = all.toArray(NONE);
+        }
+    }
+
+    static boolean isNonWildcardHeader(String header) {
+        for (String name : NON_WILDCARD_HEADERS) {
+            if (name.equalsIgnoreCase(header)) return true;
+        }
+        return false;
+    }
+
+    static int standardMethodIndex(String method) {
+        for (int i = 0; i < STANDARD_METHODS.length; ++i) {
+            if (STANDARD_METHODS[i].equalsIgnoreCase(method)) return i;
+        }
+        return -1;
+    }
+
+    /** Independently locked part of the cache, holding the entries whose key hashes to it */
+    static class Segment extends LinkedHashMap<PreflightCacheKey, CacheEntry> {
+        private static final long serialVersionUID = 1L;
+
+        final PreflightCache cache;
+        int evicted; // by the current insertion
+        long sweptCutoff = NO_CUTOFF; // up to which cleared entries have been removed
+
+        Segment(PreflightCache cache) {
+            super(16, 0.75f, true);
+            this.cache = cache;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PreflightCacheKey, CacheEntry> eldest) {
+            final boolean evict = cache.maxSize > 0 && cache.total.get() > cache.maxSize
+                    || eldest.getValue().isExpired(System.currentTimeMillis());
+            if (evict) {
+                ++evicted;
+                cache.total.decrementAndGet();
+            }
+            return evict;
+        }
+
+        /** Removes up to {@link #SWEEP_BATCH} cleared or expired entries, starting from the least recently used end
+         * where cleared entries collect as they are no longer accessed, and skipping any live entries among them
+         * (e.g. ones inserted after the cut-off but not accessed since).
+         * The segment only counts as swept for the cut-off once all of its entries have been checked.
+         */
+        void sweep(long cutoff) {
+            if (sweptCutoff == cutoff) return;
+            final long now = System.currentTimeMillis();
+            int removed = 0;
+            for (Iterator<CacheEntry> it = values().iterator(); it.hasNext(); ) {
+                CacheEntry entry = it.next();
+                if (!entry.isCleared(cutoff) && !entry.isExpired(now)) continue;
+                if (removed == SWEEP_BATCH) return; // more to do next time
+                it.remove();
+                cache.total.decrementAndGet();
+                ++removed;
+            }
+            sweptCutoff = cutoff;
+        }
+
+        /** Looks up an entry, removing it if expired or cleared */
+        CacheEntry getCurrent(PreflightCacheKey key, long cutoff) {
+            sweep(cutoff);
+            CacheEntry entry = get(key);
+            if (entry != null && (entry.isExpired(System.currentTimeMillis()) || entry.isCleared(cutoff))) {
+                remove(key);
+                cache.total.decrementAndGet();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    protected final Segment[] segments;
+
+    /** Maximum number of entries across all segments, or 0 for no limit */
+    protected final int maxSize;
+
+    /** Number of entries across all segments, kept up to date by each segment (under its own lock) */
+    protected final AtomicInteger total = new AtomicInteger();
+
+    /** Entries inserted before this time (as per System.nanoTime()) are considered cleared */
+    protected volatile long cutoff = NO_CUTOFF;
+
+    /** Preflight requests currently being made, so concurrent requests for the same preflight can wait for them */
+    protected final ConcurrentHashMap<String, CountDownLatch> inFlight = new ConcurrentHashMap<>();
+
+    /** Creates a cache for use by a single thread.
+     * @param maxSize maximum number of entries to cache, or 0 for no limit
+     */
+    public PreflightCache(int maxSize) {
+        this(maxSize, 1);
+    }
+
+    /** Creates a cache that can be shared by several threads.
+     * @param maxSize maximum number of entries to cache, or 0 for no limit
+     * @param concurrency number of independently locked segments (rounded up to a power of two)
+     */
+    public PreflightCache(int maxSize, int concurrency) {
+        int n = 1;
+        while (n < concurrency) n <<= 1;
+        this.maxSize = maxSize;
+        segments = new Segment[n];
+        for (int i = 0; i < n; ++i) {
+            segments[i] = new Segment(this);
+        }
+    }
+
+    protected Segment segmentFor(PreflightCacheKey key) {
+        final int h = key.hashCode();
+        return segments[(h ^ h >>> 16) & segments.length - 1];
+    }
+
+    /**
+     * @param key identifies the actual request's origin, URL and credentials mode
+     * @param method method of the actual request
+     * @param headers names of the actual request's headers that require preflight
+     * @return true iff an unexpired entry allows the method and all headers
+     */
+    public boolean contains(PreflightCacheKey key, String method, Collection<String> headers) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            CacheEntry entry = segment.getCurrent(key, cutoff);
+            if (entry == null) return false;
+            if (entry.failures > 0 || !entry.allowsMethod(method)) return false;
+            for (String header : headers) {
+                if (!entry.allowsHeader(header)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** Adds the methods and headers allowed by a preflight response.
+     * If the key is still cached, its entry is extended with the new methods and headers and takes on the new expiry
+     * (and counts as inserted now, for clearing).
+     *
+     * @param key identifies the actual request's origin, URL and credentials mode
+     * @param methods values of the "Access-Control-Allow-Methods" response header
+     * @param headers values of the "Access-Control-Allow-Headers" response header
+     * @param expiry expiration time in epoch millis
+     * @return number of entries evicted to make room (0 or 1)
+     */
+    public int put(PreflightCacheKey key, Collection<String> methods, Collection<String> headers, long expiry) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            CacheEntry entry = segment.getCurrent(key, cutoff);
+            if (entry == null) total.incrementAndGet(); // before inserting, so it counts towards the maximum size
+            if (entry == null || entry.failures > 0) {
+                entry = new CacheEntry();
+            }
+            entry.addMethods(methods, !key.hasCredentials());
+            entry.addHeaders(headers, !key.hasCredentials());
+            entry.expiry = expiry;
+            entry.inserted = System.nanoTime();
+            segment.evicted = 0;
+            segment.put(key, entry); // may evict the eldest entry, so only insert once complete
+            return segment.evicted;
+        }
+    }
+
+    /** Adds the methods and headers of a policy known in advance (e.g. from a snapshot), unless the key is cached
+     * already (including a failed preflight).
+     *
+     * @param key identifies the actual request's origin, URL and credentials mode
+     * @param methods allowed methods
+     * @param headers allowed headers
+     * @param expiry expiration time in epoch millis
+     * @return number of entries evicted to make room (0 or 1), or -1 if the key is cached already
+     */
+    public int putIfAbsent(PreflightCacheKey key, Collection<String> methods, Collection<String> headers, long expiry) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.getCurrent(key, cutoff) != null ? -1 : put(key, methods, headers, expiry);
+        }
+    }
+
+    /** Caches a failed preflight (negative caching), replacing any policy for the key as a browser would,
+     * so that no preflight requests are made for the key for a while.
+     * The failure count is kept for as long again, so that repeated failures can back off.
+     *
+     * @param key identifies the actual request's origin, URL and credentials mode
+     * @param ttl duration (in millis) to suppress preflight requests for, given the number of consecutive failures
+     * @return number of entries evicted to make room (0 or 1)
+     */
+    public int putFailure(PreflightCacheKey key, IntToLongFunction ttl) {
+        final Segment segment = segmentFor(key);
+        final long now = System.currentTimeMillis();
+        synchronized (segment) {
+            CacheEntry previous = segment.getCurrent(key, cutoff);
+            if (previous == null) total.incrementAndGet();
+            CacheEntry entry = new CacheEntry();
+            entry.failures = previous != null && previous.failures > 0 ? previous.failures + 1 : 1;
+            final long duration = ttl.applyAsLong(entry.failures);
+            entry.failedUntil = now + duration;
+            entry.expiry = entry.failedUntil + duration;
+            segment.evicted = 0;
+            segment.put(key, entry);
+            return segment.evicted;
+        }
+    }
+
+    /**
+     * @param key identifies the actual request's origin, URL and credentials mode
+     * @return true iff preflight requests for the key are suppressed after a failure
+     */
+    public boolean isFailing(PreflightCacheKey key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            CacheEntry entry = segment.getCurrent(key, cutoff);
+            return entry != null && entry.failures > 0 && System.currentTimeMillis() < entry.failedUntil;
+        }
+    }
+
+    /** Registers a preflight request about to be made, unless the same one is already being made by another thread.
+     *
+     * @param key identifies the preflight request
+     * @return null if the caller should make the preflight request and then call {@link #endPreflight(String)},
+     * otherwise a latch that is released when the other thread's preflight request has been cached
+     */
+    public CountDownLatch startPreflight(String key) {
+        return inFlight.putIfAbsent(key, new CountDownLatch(1));
+    }
+
+    /** Releases any threads waiting for a preflight request registered with {@link #startPreflight(String)}.
+     * @param key identifies the preflight request
+     */
+    public void endPreflight(String key) {
+        CountDownLatch latch = inFlight.remove(key);
+        if (latch != null) latch.countDown();
+    }
+
+    /** @return number of entries, including cleared ones that have not been removed yet */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** Clears all entries inserted before the given time in O(1), i.e. they are treated as absent from now on and
+     * removed incrementally by later operations (rather than all at once).
+     *
+     * @param time as per System.nanoTime(), e.g. the current time to clear all entries
+     */
+    public void clearInsertedBefore(long time) {
+        cutoff = Math.max(cutoff, time);
+    }
+
+    /** Removes all entries at once */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                total.addAndGet(-segment.size());
+                segment.clear();
+            }
+        }
+    }
+}
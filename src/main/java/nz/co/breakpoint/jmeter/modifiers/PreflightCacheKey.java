@@ -0,0 +1,75 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.net.URL;
+import java.util.Locale;
+
+/** Identifies a preflight cache entry, like a browser does: by origin, URL and credentials mode.
+ * URLs are normalized (case of scheme and host, default port, fragment) and may optionally exclude the query string,
+ * and the hash code is computed up front, so keys are cheap to look up.
+ *
+ * @see <a href="https://fetch.spec.whatwg.org/#cors-preflight-cache">CORS-preflight cache</a>
+ */
+public final class PreflightCacheKey {
+
+    final String origin;
+    final String url;
+    final boolean credentials;
+    private final int hash;
+
+    public PreflightCacheKey(String origin, String url, boolean credentials) {
+        this.origin = origin;
+        this.url = url;
+        this.credentials = credentials;
+        this.hash = (31 * origin.hashCode() + url.hashCode()) * 31 + (credentials ? 1 : 0);
+    }
+
+    /**
+     * @param origin value of the actual request's "Origin" header
+     * @param url URL of the actual request
+     * @param credentials whether the actual request includes credentials
+     * @param ignoreQuery whether to exclude the query string from the key
+     * @return the cache key for the request
+     */
+    public static PreflightCacheKey of(String origin, URL url, boolean credentials, boolean ignoreQuery) {
+        return new PreflightCacheKey(origin.trim(), normalize(url, ignoreQuery), credentials);
+    }
+
+    /**
+     * @param url a URL
+     * @param ignoreQuery whether to drop the query string
+     * @return the URL with lower case scheme and host, without default port, fragment and (optionally) query string
+     */
+    public static String normalize(URL url, boolean ignoreQuery) {
+        final String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(protocol).append("://").append(url.getHost().toLowerCase(Locale.ROOT));
+        if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+            sb.append(':').append(url.getPort());
+        }
+        sb.append(url.getPath().isEmpty() ? "/" : url.getPath());
+        if (!ignoreQuery && url.getQuery() != null) {
+            sb.append('?').append(url.getQuery());
+        }
+        return sb.toString();
+    }
+
+    public String getOrigin() { return origin; }
+    public String getUrl() { return url; }
+    public boolean hasCredentials() { return credentials; }
+
+    @Override
+    public int hashCode() { return hash; }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PreflightCacheKey)) return false;
+        PreflightCacheKey other = (PreflightCacheKey) obj;
+        return hash == other.hash && credentials == other.credentials
+                && url.equals(other.url) && origin.equals(other.origin);
+    }
+
+    @Override
+    public String toString() {
+        return origin + " " + url + (credentials ? " (credentials)" : "");
+    }
+}
@@ -0,0 +1,203 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Classifies request headers as to whether they require a CORS-preflight request.
+ * All rules are compiled once (from {@link CorsPreProcessor#forbiddenHeaders}, {@link CorsPreProcessor#methodOverrideHeaders}
+ * and {@link CorsPreProcessor#safeListedHeaders}, when first used) into a hash table of lower-case header names, which is
+ * probed by a case-insensitive hash of the name without creating a lower-cased copy, and a single byte range (the "Range"
+ * value) is checked by hand rather than by a regular expression, so classifying a header does not allocate.
+ *
+ * @see <a href="https://fetch.spec.whatwg.org/#cors-safelisted-request-header">CORS-safelisted request-header</a>
+ * @see <a href="https://fetch.spec.whatwg.org/#forbidden-header-name">Forbidden header name</a>
+ */
+public final class PreflightHeaderClassifier {
+
+    enum Rule {
+        /** Cannot be set by scripts, so never listed in a preflight */
+        FORBIDDEN,
+        /** Forbidden only if its value is a forbidden method */
+        METHOD_OVERRIDE,
+        /** Safelisted regardless of value */
+        SAFELISTED,
+        /** Safelisted only for values starting with one of the given prefixes (e.g. simple content types) */
+        SAFELISTED_PREFIX,
+        /** Safelisted only for a single byte range with a start, i.e. {@link PreflightHeaderClassifier#SINGLE_BYTE_RANGE} */
+        SAFELISTED_RANGE,
+        /** Safelisted only for values matching the given pattern */
+        SAFELISTED_PATTERN
+    }
+
+    /** Rule for one header name, with the values it is safelisted for */
+    static final class Classification {
+        final Rule rule;
+        final String[] prefixes;
+        final Pattern pattern;
+
+        Classification(Rule rule, String[] prefixes, Pattern pattern) {
+            this.rule = rule;
+            this.prefixes = prefixes;
+            this.pattern = pattern;
+        }
+
+        static final Classification FORBIDDEN = new Classification(Rule.FORBIDDEN, null, null);
+        static final Classification METHOD_OVERRIDE = new Classification(Rule.METHOD_OVERRIDE, null, null);
+        static final Classification SAFELISTED = new Classification(Rule.SAFELISTED, null, null);
+        static final Classification SAFELISTED_RANGE = new Classification(Rule.SAFELISTED_RANGE, null, null);
+
+        /** Compiles a value regular expression from {@link CorsPreProcessor#safeListedHeaders}, recognising
+         * "any value", a single byte range and alternatives of literal prefixes (such as "(text/plain|...).*")
+         * so these need no matcher.
+         */
+        static Classification safelisted(String valueRegex) {
+            if (".*".equals(valueRegex)) return SAFELISTED;
+            if (SINGLE_BYTE_RANGE.equals(valueRegex)) return SAFELISTED_RANGE;
+            final Matcher m = LITERAL_PREFIXES.matcher(valueRegex);
+            if (m.matches()) {
+                return new Classification(Rule.SAFELISTED_PREFIX, m.group(1).split("\\|"), null);
+            }
+            return new Classification(Rule.SAFELISTED_PATTERN, null, Pattern.compile(valueRegex));
+        }
+    }
+
+    static final String[] FORBIDDEN_PREFIXES = Arrays.stream(CorsPreProcessor.forbiddenHeaders.split("\\|"))
+            .filter(name -> name.endsWith(".*"))
+            .map(name -> name.substring(0, name.length() - 2))
+            .toArray(String[]::new);
+    static final String[] FORBIDDEN_METHODS = CorsPreProcessor.forbiddenMethods.split("\\|");
+    /** "(literal|literal|...).*" */
+    static final Pattern LITERAL_PREFIXES = Pattern.compile("\\(([\\w/.+-]+(?:\\|[\\w/.+-]+)*)\\)\\.\\*");
+    /** Value regular expression of a CORS-safelisted "Range" header, which is checked by {@link #isSingleByteRange(String)} */
+    static final String SINGLE_BYTE_RANGE = "bytes=[0-9]+-[0-9]*";
+
+    /** Open-addressing hash table of lower-case header names (interned) and their rules, at most half full */
+    private static final String[] names;
+    private static final Classification[] rules;
+
+    static {
+        final Map<String, Classification> all = new LinkedHashMap<>();
+        for (String name : CorsPreProcessor.forbiddenHeaders.split("\\|")) {
+            if (!name.endsWith(".*")) all.put(name.toLowerCase().intern(), Classification.FORBIDDEN);
+        }
+        for (String name : CorsPreProcessor.methodOverrideHeaders.split("\\|")) {
+            all.put(name.toLowerCase().intern(), Classification.METHOD_OVERRIDE);
+        }
+        for (Map.Entry<String, String> entry : CorsPreProcessor.safeListedHeaders.entrySet()) {
+            all.put(entry.getKey().toLowerCase().intern(), Classification.safelisted(entry.getValue()));
+        }
+        int capacity = 1;
+        while (capacity < 2 * all.size()) capacity <<= 1;
+        names = new String[capacity];
+        rules = new Classification[capacity];
+        for (Map.Entry<String, Classification> entry : all.entrySet()) {
+            int i = hashIgnoreCase(entry.getKey()) & capacity - 1;
+            while (names[i] != null) i = i + 1 & capacity - 1;
+            names[i] = entry.getKey();
+            rules[i] = entry.getValue();
+        }
+    }
+
+    private PreflightHeaderClassifier() {}
+
+    /**
+     * @param name header name (any case)
+     * @param value header value
+     * @return true iff the header is one that requires a preflight request
+     */
+    public static boolean isPreflightHeader(String name, String value) {
+        if (name == null) return false;
+        if (value == null) value = "";
+
+        for (String prefix : FORBIDDEN_PREFIXES) {
+            if (name.regionMatches(true, 0, prefix, 0, prefix.length())) return false;
+        }
+        Classification c = ruleFor(name);
+        if (c == null) return true;
+
+        switch (c.rule) {
+            case FORBIDDEN:
+                return false;
+            case METHOD_OVERRIDE:
+                return !isForbiddenMethod(value);
+            case SAFELISTED:
+                return false;
+            case SAFELISTED_PREFIX:
+                return !startsWithAny(value, c.prefixes);
+            case SAFELISTED_RANGE:
+                return !isSingleByteRange(value);
+            case SAFELISTED_PATTERN:
+                return !c.pattern.matcher(value).matches();
+            default:
+                return true;
+        }
+    }
+
+    /** Hashes a header name as its lower-case form would be hashed by {@link String#hashCode()} (for ASCII names) */
+    static int hashIgnoreCase(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            h = 31 * h + Character.toLowerCase(name.charAt(i));
+        }
+        return h ^ h >>> 16;
+    }
+
+    /** @return the rule for the given header name (any case), or null if there is none */
+    static Classification ruleFor(String name) {
+        final int mask = names.length - 1;
+        for (int i = hashIgnoreCase(name) & mask; names[i] != null; i = i + 1 & mask) {
+            if (names[i].equalsIgnoreCase(name)) return rules[i];
+        }
+        return null;
+    }
+
+    /** Checks for "bytes=" followed by a start, "-" and an optional end that is not less than the start
+     * (as per <a href="https://fetch.spec.whatwg.org/#simple-range-header-value">simple range header value</a>).
+     */
+    static boolean isSingleByteRange(String value) {
+        final int prefix = "bytes=".length();
+        if (!value.startsWith("bytes=")) return false;
+        final int dash = value.indexOf('-', prefix);
+        if (dash < 0 || !isDigits(value, prefix, dash)) return false;
+        return dash + 1 == value.length() // no end
+                || isDigits(value, dash + 1, value.length()) && compareNumbers(value, prefix, dash, dash + 1, value.length()) <= 0;
+    }
+
+    /** @return true iff the given part of the value is non-empty and only holds ASCII digits */
+    static boolean isDigits(String value, int from, int to) {
+        if (from >= to) return false;
+        for (int i = from; i < to; ++i) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /** Compares two (arbitrarily long) decimal numbers within the value without parsing them */
+    static int compareNumbers(String value, int from1, int to1, int from2, int to2) {
+        while (from1 < to1 - 1 && value.charAt(from1) == '0') ++from1;
+        while (from2 < to2 - 1 && value.charAt(from2) == '0') ++from2;
+        if (to1 - from1 != to2 - from2) return (to1 - from1) - (to2 - from2);
+        for (; from1 < to1; ++from1, ++from2) {
+            if (value.charAt(from1) != value.charAt(from2)) return value.charAt(from1) - value.charAt(from2);
+        }
+        return 0;
+    }
+
+    static boolean isForbiddenMethod(String method) {
+        for (String forbidden : FORBIDDEN_METHODS) {
+            if (forbidden.equalsIgnoreCase(method)) return true;
+        }
+        return false;
+    }
+
+    static boolean startsWithAny(String value, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (value.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,187 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** The "Access-Control-*" response headers of a preflight request, extracted in a single pass over the response headers.
+ * Instances are meant to be reused: {@link #parse(String)} resets all fields before parsing.
+ * Repeated list-valued headers are combined. Invalid or conflicting "Access-Control-Max-Age" values are ignored
+ * (so the default expiry applies) and recorded as a warning rather than causing an exception.
+ */
+public class PreflightResponse {
+
+    public static final String ACCESS_CONTROL_MAX_AGE = "Access-Control-Max-Age";
+    public static final String ACCESS_CONTROL_ALLOW_HEADERS = "Access-Control-Allow-Headers";
+    public static final String ACCESS_CONTROL_ALLOW_METHODS = "Access-Control-Allow-Methods";
+    public static final String ACCESS_CONTROL_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
+    public static final String ACCESS_CONTROL_ALLOW_CREDENTIALS = "Access-Control-Allow-Credentials";
+
+    protected static final long NO_MAX_AGE = -1;
+
+    protected long maxAge;
+    protected final List<String> allowHeaders = new ArrayList<>();
+    protected final List<String> allowMethods = new ArrayList<>();
+    protected String allowOrigin;
+    protected String allowCredentials;
+    protected String warning;
+
+    protected void reset() {
+        maxAge = NO_MAX_AGE;
+        allowHeaders.clear();
+        allowMethods.clear();
+        allowOrigin = null;
+        allowCredentials = null;
+        warning = null;
+    }
+
+    /**
+     * @param headers response headers of a preflight request, one per line (as per SampleResult.getResponseHeaders())
+     * @return this
+     */
+    public PreflightResponse parse(String headers) {
+        reset();
+        if (headers == null) return this;
+
+        final int length = headers.length();
+        for (int start = 0; start < length; ) {
+            int end = headers.indexOf('\n', start);
+            if (end < 0) end = length;
+            parseLine(headers, start, end);
+            start = end + 1;
+        }
+        return this;
+    }
+
+    protected void parseLine(String line, int start, int end) {
+        final int colon = line.indexOf(':', start);
+        if (colon < 0 || colon >= end) return; // e.g. status line
+
+        final int nameStart = skipWhitespace(line, start, colon);
+        final int nameEnd = trimWhitespace(line, nameStart, colon);
+        final int valueStart = skipWhitespace(line, colon + 1, end);
+        final int valueEnd = trimWhitespace(line, valueStart, end);
+
+        if (isName(line, nameStart, nameEnd, ACCESS_CONTROL_MAX_AGE)) {
+            parseMaxAge(line, valueStart, valueEnd);
+        } else if (isName(line, nameStart, nameEnd, ACCESS_CONTROL_ALLOW_HEADERS)) {
+            split(line, valueStart, valueEnd, allowHeaders);
+        } else if (isName(line, nameStart, nameEnd, ACCESS_CONTROL_ALLOW_METHODS)) {
+            split(line, valueStart, valueEnd, allowMethods);
+        } else if (isName(line, nameStart, nameEnd, ACCESS_CONTROL_ALLOW_ORIGIN)) {
+            final String value = line.substring(valueStart, valueEnd);
+            allowOrigin = allowOrigin == null ? value : allowOrigin + ", " + value;
+        } else if (isName(line, nameStart, nameEnd, ACCESS_CONTROL_ALLOW_CREDENTIALS)) {
+            final String value = line.substring(valueStart, valueEnd);
+            allowCredentials = allowCredentials == null ? value : allowCredentials + ", " + value;
+        }
+    }
+
+    protected void parseMaxAge(String line, int start, int end) {
+        long value = 0;
+        boolean valid = start < end;
+        for (int i = start; valid && i < end; ++i) {
+            final char c = line.charAt(i);
+            valid = c >= '0' && c <= '9';
+            value = Math.min(value * 10 + (c - '0'), Integer.MAX_VALUE);
+        }
+        if (!valid) {
+            warning = "Ignoring invalid " + ACCESS_CONTROL_MAX_AGE + " \"" + line.substring(start, end) + "\"";
+            maxAge = NO_MAX_AGE;
+        } else if (warning == null && maxAge != NO_MAX_AGE && maxAge != value) {
+            warning = "Ignoring conflicting " + ACCESS_CONTROL_MAX_AGE + " values";
+            maxAge = NO_MAX_AGE;
+        } else if (warning == null) {
+            maxAge = value;
+        }
+    }
+
+    protected static boolean isName(String line, int start, int end, String name) {
+        return end - start == name.length() && line.regionMatches(true, start, name, 0, name.length());
+    }
+
+    /** Adds the comma and/or whitespace separated values to the list */
+    protected static void split(String line, int start, int end, List<String> values) {
+        for (int i = start; i < end; ) {
+            while (i < end && isSeparator(line.charAt(i))) ++i;
+            final int tokenStart = i;
+            while (i < end && !isSeparator(line.charAt(i))) ++i;
+            if (i > tokenStart) values.add(line.substring(tokenStart, i));
+        }
+    }
+
+    protected static boolean isSeparator(char c) {
+        return c == ',' || Character.isWhitespace(c);
+    }
+
+    protected static int skipWhitespace(String line, int start, int end) {
+        while (start < end && Character.isWhitespace(line.charAt(start))) ++start;
+        return start;
+    }
+
+    protected static int trimWhitespace(String line, int start, int end) {
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) --end;
+        return end;
+    }
+
+    /** Performs the checks a browser makes on the headers of a preflight response before it sends the actual request.
+     * Passing responses neither allocate nor use regular expressions.
+     *
+     * @param origin value of the actual request's "Origin" header
+     * @param credentials whether the actual request includes credentials
+     * @param method of the actual request
+     * @param headers names of the actual request's headers that are not safelisted
+     * @return description of the first failed check, or null if all passed
+     * @see <a href="https://fetch.spec.whatwg.org/#cors-preflight-fetch">CORS-preflight fetch</a>
+     */
+    public String check(String origin, boolean credentials, String method, Collection<String> headers) {
+        if (allowOrigin == null) {
+            return "Missing " + ACCESS_CONTROL_ALLOW_ORIGIN;
+        }
+        if (!allowOrigin.equals(origin) && (credentials || !"*".equals(allowOrigin))) {
+            return ACCESS_CONTROL_ALLOW_ORIGIN + " \"" + allowOrigin + "\" does not allow " + origin
+                    + (credentials ? " with credentials" : "");
+        }
+        if (credentials && !"true".equals(allowCredentials)) {
+            return ACCESS_CONTROL_ALLOW_CREDENTIALS + " is not \"true\"";
+        }
+        if (!isSafelistedMethod(method) && !contains(allowMethods, method, !credentials)) {
+            return ACCESS_CONTROL_ALLOW_METHODS + " does not allow " + method;
+        }
+        for (String header : headers) {
+            if (!contains(allowHeaders, header, !credentials && !PreflightCache.isNonWildcardHeader(header))) {
+                return ACCESS_CONTROL_ALLOW_HEADERS + " does not allow " + header;
+            }
+        }
+        return null;
+    }
+
+    protected static boolean isSafelistedMethod(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "POST".equals(method);
+    }
+
+    /**
+     * @param wildcard whether "*" matches any value
+     * @return true iff the list contains the value (case-insensitively) or a matching wildcard
+     */
+    protected static boolean contains(List<String> values, String value, boolean wildcard) {
+        for (int i = 0, n = values.size(); i < n; ++i) {
+            final String v = values.get(i);
+            if (v.equalsIgnoreCase(value) || wildcard && "*".equals(v)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param defaultMaxAge expiry (in seconds) to use if no valid "Access-Control-Max-Age" was received
+     * @return expiry in seconds
+     */
+    public long getMaxAge(long defaultMaxAge) { return maxAge == NO_MAX_AGE ? defaultMaxAge : maxAge; }
+    public boolean hasMaxAge() { return maxAge != NO_MAX_AGE; }
+    public List<String> getAllowHeaders() { return allowHeaders; }
+    public List<String> getAllowMethods() { return allowMethods; }
+    public String getAllowOrigin() { return allowOrigin; }
+    public String getAllowCredentials() { return allowCredentials; }
+    /** @return description of an invalid header value that was ignored, or null */
+    public String getWarning() { return warning; }
+}
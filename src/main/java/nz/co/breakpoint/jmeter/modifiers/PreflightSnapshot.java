@@ -0,0 +1,153 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The preflight policies learned during a test (allowed methods and headers and Max-Age per cache key),
+ * which can be saved at the end of a test and loaded at the start of the next one, so that preflight caches
+ * can start warm, as for a population of returning browser users.
+ * Snapshots are written and read as a stream of entries in a compact binary format.
+ */
+public class PreflightSnapshot {
+
+    static final int MAGIC = 0xC0125CAC;
+    static final int VERSION = 1;
+
+    /** Preflight policy for one cache key */
+    public static class Entry {
+        final PreflightCacheKey key;
+        final Set<String> methods;
+        final Set<String> headers;
+        volatile long maxAge; // seconds
+
+        Entry(PreflightCacheKey key, Collection<String> methods, Collection<String> headers, long maxAge) {
+            this.key = key;
+            this.methods = Collections.synchronizedSet(new LinkedHashSet<>(methods));
+            this.headers = Collections.synchronizedSet(new LinkedHashSet<>(headers));
+            this.maxAge = maxAge;
+        }
+
+        public PreflightCacheKey getKey() { return key; }
+        public Collection<String> getMethods() { return methods; }
+        public Collection<String> getHeaders() { return headers; }
+        public long getMaxAge() { return maxAge; }
+    }
+
+    protected final Map<PreflightCacheKey, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Adds the policy of a preflight response, merging it with any previous one for the same key.
+     *
+     * @param key cache key of the actual request
+     * @param methods values of the "Access-Control-Allow-Methods" response header
+     * @param headers values of the "Access-Control-Allow-Headers" response header
+     * @param maxAge expiry in seconds
+     */
+    public void record(PreflightCacheKey key, Collection<String> methods, Collection<String> headers, long maxAge) {
+        Entry entry = entries.putIfAbsent(key, new Entry(key, methods, headers, maxAge));
+        if (entry != null) {
+            entry.methods.addAll(methods);
+            entry.headers.addAll(headers);
+            entry.maxAge = maxAge;
+        }
+    }
+
+    /** Adds the entries of another snapshot for keys that this one has no policy for (yet), e.g. so that
+     * policies loaded at the start of a test but not requested again are kept.
+     *
+     * @param other snapshot to take missing entries from
+     */
+    public void addMissing(PreflightSnapshot other) {
+        for (Entry entry : other.entries.values()) entries.putIfAbsent(entry.key, entry);
+    }
+
+    public Collection<Entry> getEntries() { return entries.values(); }
+
+    /**
+     * @param key cache key of the actual request
+     * @return the policy for the key, or null if none
+     */
+    public Entry get(PreflightCacheKey key) { return entries.get(key); }
+
+    public int size() { return entries.size(); }
+
+    /** Adds all entries to a cache, expiring after their Max-Age from now.
+     *
+     * @param cache preflight cache to warm up
+     */
+    public void warm(PreflightCache cache) {
+        final long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            cache.put(entry.key, entry.methods, entry.headers, now + entry.maxAge * 1000);
+        }
+    }
+
+    /**
+     * @param path file to write to (replaced if it exists)
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path) throws IOException {
+        List<Entry> snapshot = new ArrayList<>(entries.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.key.getOrigin());
+                out.writeUTF(entry.key.getUrl());
+                out.writeBoolean(entry.key.hasCredentials());
+                out.writeLong(entry.maxAge);
+                writeStrings(out, entry.methods);
+                writeStrings(out, entry.headers);
+            }
+        }
+    }
+
+    /**
+     * @param path file to read
+     * @return the snapshot read from the file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static PreflightSnapshot load(Path path) throws IOException {
+        PreflightSnapshot snapshot = new PreflightSnapshot();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a preflight snapshot: " + path);
+            }
+            for (int n = in.readInt(); n > 0; --n) {
+                PreflightCacheKey key = new PreflightCacheKey(in.readUTF(), in.readUTF(), in.readBoolean());
+                long maxAge = in.readLong();
+                snapshot.record(key, readStrings(in), readStrings(in), maxAge);
+            }
+        }
+        return snapshot;
+    }
+
+    protected static void writeStrings(DataOutputStream out, Set<String> values) throws IOException {
+        final String[] array;
+        synchronized (values) {
+            array = values.toArray(new String[0]);
+        }
+        out.writeShort(array.length);
+        for (String value : array) out.writeUTF(value);
+    }
+
+    protected static List<String> readStrings(DataInputStream in) throws IOException {
+        String[] values = new String[in.readUnsignedShort()];
+        for (int i = 0; i < values.length; ++i) values[i] = in.readUTF();
+        return Arrays.asList(values);
+    }
+}
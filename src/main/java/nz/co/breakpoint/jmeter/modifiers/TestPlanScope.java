@@ -0,0 +1,420 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import org.apache.jmeter.config.ConfigElement;
+import org.apache.jmeter.config.ConfigTestElement;
+import org.apache.jmeter.engine.util.NoConfigMerge;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.protocol.http.sampler.HTTPSamplerBase;
+import org.apache.jorphan.collections.HashTree;
+import org.apache.jorphan.collections.HashTreeTraverser;
+
+/** Finds the elements of a (thread's) test tree that are in scope of a given element,
+ * as per <a href="https://jmeter.apache.org/usermanual/test_plan.html#scoping_rules">JMeter's scoping rules</a>.
+ */
+public final class TestPlanScope {
+
+    private TestPlanScope() {}
+
+    /** Tracks the path from the root of the tree while traversing, and records it (and the position of each node
+     * on it) when the target is reached.
+     */
+    static class PathFinder implements HashTreeTraverser {
+        final Object target;
+        final LinkedList<HashTree> stack = new LinkedList<>();
+        final List<Integer> position = new ArrayList<>();
+        final List<Integer> childCounts = new ArrayList<>(Collections.singletonList(0));
+        List<HashTree> path;
+        List<Integer> targetPosition;
+
+        PathFinder(Object target, HashTree root) {
+            this.target = target;
+            stack.add(root);
+        }
+
+        @Override
+        public void addNode(Object node, HashTree subTree) {
+            final int depth = childCounts.size() - 1;
+            final int index = childCounts.get(depth);
+            childCounts.set(depth, index + 1);
+            childCounts.add(0);
+            position.add(index);
+            stack.addLast(subTree);
+            if (node == target && path == null) {
+                path = new ArrayList<>(stack);
+                targetPosition = new ArrayList<>(position);
+            }
+        }
+
+        @Override
+        public void subtractNode() {
+            stack.removeLast();
+            position.remove(position.size() - 1);
+            childCounts.remove(childCounts.size() - 1);
+        }
+
+        @Override
+        public void processPath() {}
+    }
+
+    /**
+     * @param tree test tree to search
+     * @param element element to find in the tree
+     * @return the subtrees from the root of the tree down to (and including) the element's own subtree,
+     * or an empty list if the element is not in the tree
+     */
+    public static List<HashTree> pathTo(HashTree tree, Object element) {
+        if (tree == null) return Collections.emptyList();
+        PathFinder finder = new PathFinder(element, tree);
+        tree.traverse(finder);
+        return finder.path == null ? Collections.emptyList() : finder.path;
+    }
+
+    /**
+     * @param tree test tree to search
+     * @param element element to find in the tree
+     * @return the index of each node from the root of the tree down to the element, which identifies the element
+     * in all threads' clones of the test tree, or an empty list if the element is not in the tree
+     */
+    public static List<Integer> positionOf(HashTree tree, Object element) {
+        if (tree == null) return Collections.emptyList();
+        PathFinder finder = new PathFinder(element, tree);
+        tree.traverse(finder);
+        return finder.targetPosition == null ? Collections.emptyList() : finder.targetPosition;
+    }
+
+    /**
+     * @param path as returned by {@link #pathTo(HashTree, Object)}
+     * @param type class of elements to find
+     * @return distinct elements of the given type that are children of the element or any of its ancestors,
+     * nearest first
+     */
+    public static <T> List<T> inScope(List<HashTree> path, Class<T> type) {
+        Map<Object, Boolean> found = new IdentityHashMap<>();
+        List<T> elements = new ArrayList<>();
+        for (int i = path.size() - 1; i >= 0; --i) {
+            for (Object child : path.get(i).list()) {
+                if (type.isInstance(child) && found.put(child, Boolean.TRUE) == null) {
+                    elements.add(type.cast(child));
+                }
+            }
+        }
+        return elements;
+    }
+
+    /** Determines the elements in scope of each target element in a single traversal of the tree
+     * (rather than one traversal per target), in the same way as {@link #inScope(List, Class)}.
+     * These are recorded by position (i.e. the index of each node from the root of the tree), so they can be
+     * found in all threads' (structurally identical) clones of the tree by following the paths to them only,
+     * rather than traversing each clone again.
+     *
+     * @param tree test tree to search
+     * @param isTarget selects the elements to find the scope of
+     * @param type class of elements to find
+     * @return positions of the elements in scope of each target element, nearest first
+     */
+    public static <T> PositionalScopes<T> scopesOfEach(HashTree tree, Predicate<Object> isTarget, Class<T> type) {
+        if (tree == null) return new PositionalScopes<>(type).index();
+        ScopeCollector<T> collector = new ScopeCollector<>(tree, isTarget, type);
+        tree.traverse(collector);
+        return collector.scopes.index();
+    }
+
+    /** Elements in scope of a subtree, by position, and the elements themselves if they are the same in all clones
+     * of the tree (i.e. not cloned per thread)
+     */
+    static class Scope<T> {
+        final List<List<Integer>> positions;
+        final List<T> shared;
+        int[] ids; // of the positions, once indexed
+
+        Scope(List<List<Integer>> positions, List<T> elements) {
+            this.positions = positions;
+            boolean cloned = false;
+            for (T element : elements) {
+                cloned |= !(element instanceof NoThreadClone);
+            }
+            this.shared = cloned ? null : Collections.unmodifiableList(elements);
+        }
+    }
+
+    /** One node of the tree of recorded positions, with the (sorted) indices of its children that lead to others */
+    static class Step {
+        int id = -1; // if its position was recorded
+        final Map<Integer, Step> next = new TreeMap<>();
+        int[] indices;
+        Step[] steps;
+
+        Step at(List<Integer> position) {
+            Step step = this;
+            for (Integer index : position) step = step.next.computeIfAbsent(index, i -> new Step());
+            return step;
+        }
+
+        void freeze() {
+            indices = new int[next.size()];
+            steps = new Step[next.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Step> entry : next.entrySet()) {
+                indices[i] = entry.getKey();
+                steps[i++] = entry.getValue();
+                entry.getValue().freeze();
+            }
+        }
+
+        /** Finds the nodes at all recorded positions below this one, by descending only into the subtrees that lead
+         * to them (and without touching the nodes themselves otherwise)
+         */
+        void find(HashTree tree, Object[] found) {
+            final List<?> nodes = listOf(tree);
+            for (int i = 0; i < indices.length && indices[i] < nodes.size(); ++i) {
+                final Object node = nodes.get(indices[i]);
+                final Step step = steps[i];
+                if (step.id >= 0) found[step.id] = node;
+                if (step.indices.length > 0) step.find(tree.getTree(node), found);
+            }
+        }
+
+        static List<?> listOf(HashTree tree) {
+            final Collection<?> nodes = tree.list();
+            return nodes instanceof List ? (List<?>) nodes : new ArrayList<>(nodes);
+        }
+    }
+
+    /** The elements in scope of each target element of a test tree, by position, as determined by
+     * {@link #scopesOfEach(HashTree, Predicate, Class)}
+     */
+    public static final class PositionalScopes<T> {
+        final Class<T> type;
+        final List<List<Integer>> targets = new ArrayList<>(); // in traversal order
+        final List<Scope<T>> scopes = new ArrayList<>();
+        final Step root = new Step();
+        int[] targetIds;
+        int ids;
+
+        PositionalScopes(Class<T> type) {
+            this.type = type;
+        }
+
+        /** Records the positions of the targets and of the elements in scope that are cloned per thread
+         * in a tree of positions, so each thread's clone only needs to be searched along those paths.
+         */
+        PositionalScopes<T> index() {
+            targetIds = new int[targets.size()];
+            for (int i = 0; i < targets.size(); ++i) {
+                targetIds[i] = idOf(targets.get(i));
+                final Scope<T> scope = scopes.get(i);
+                if (scope.shared != null || scope.ids != null) continue;
+                scope.ids = new int[scope.positions.size()];
+                for (int j = 0; j < scope.ids.length; ++j) scope.ids[j] = idOf(scope.positions.get(j));
+            }
+            root.freeze();
+            return this;
+        }
+
+        int idOf(List<Integer> position) {
+            final Step step = root.at(position);
+            if (step.id < 0) step.id = ids++;
+            return step.id;
+        }
+
+        /**
+         * @param tree (clone of) the test tree these scopes were determined for
+         * @return elements in scope of each target element of the given tree (by identity), nearest first
+         */
+        public Map<Object, List<T>> resolve(HashTree tree) {
+            if (tree == null || targets.isEmpty()) return Collections.emptyMap();
+            final Object[] found = new Object[ids];
+            root.find(tree, found);
+            final Map<Scope<T>, List<T>> resolved = new IdentityHashMap<>();
+            final Map<Object, List<T>> result = new IdentityHashMap<>(targets.size());
+            for (int i = 0; i < targetIds.length; ++i) {
+                final Object target = found[targetIds[i]];
+                if (target == null) continue;
+                final Scope<T> scope = scopes.get(i);
+                List<T> elements = scope.shared != null ? scope.shared : resolved.get(scope);
+                if (elements == null) {
+                    elements = new ArrayList<>(scope.ids.length);
+                    for (int id : scope.ids) {
+                        if (type.isInstance(found[id])) elements.add(type.cast(found[id]));
+                    }
+                    elements = Collections.unmodifiableList(elements);
+                    resolved.put(scope, elements);
+                }
+                result.put(target, elements);
+            }
+            return result;
+        }
+    }
+
+    /** Tracks the elements in scope of the current subtree (and their positions) while traversing,
+     * and records them for each target.
+     */
+    static class ScopeCollector<T> implements HashTreeTraverser {
+        final Predicate<Object> isTarget;
+        final Class<T> type;
+        final LinkedList<Scope<T>> stack = new LinkedList<>();
+        final LinkedList<List<T>> elementStack = new LinkedList<>();
+        final List<Integer> position = new ArrayList<>();
+        final List<Integer> childCounts = new ArrayList<>(Collections.singletonList(0));
+        final PositionalScopes<T> scopes;
+
+        ScopeCollector(HashTree root, Predicate<Object> isTarget, Class<T> type) {
+            this.isTarget = isTarget;
+            this.type = type;
+            this.scopes = new PositionalScopes<>(type);
+            pushScopeOf(root, new Scope<>(Collections.emptyList(), Collections.emptyList()),
+                    Collections.emptyList(), Collections.emptyList());
+        }
+
+        @Override
+        public void addNode(Object node, HashTree subTree) {
+            final int depth = childCounts.size() - 1;
+            final int index = childCounts.get(depth);
+            childCounts.set(depth, index + 1);
+            childCounts.add(0);
+            position.add(index);
+
+            pushScopeOf(subTree, stack.getLast(), elementStack.getLast(), position);
+            if (isTarget.test(node)) {
+                scopes.targets.add(new ArrayList<>(position));
+                scopes.scopes.add(stack.getLast());
+            }
+        }
+
+        /** Reuses the parent's scope unless the subtree adds elements to it */
+        void pushScopeOf(HashTree subTree, Scope<T> parentScope, List<T> parentElements, List<Integer> subTreePosition) {
+            Scope<T> scope = parentScope;
+            List<T> elements = parentElements;
+            if (!subTree.isEmpty()) { // most samplers have no children
+                final List<Object> children = new ArrayList<>(subTree.list());
+                final Map<Object, Boolean> found = new IdentityHashMap<>();
+                final List<T> nearestFirst = new ArrayList<>();
+                final List<List<Integer>> positions = new ArrayList<>();
+                for (int i = 0; i < children.size(); ++i) {
+                    final Object child = children.get(i);
+                    if (type.isInstance(child) && found.put(child, Boolean.TRUE) == null) {
+                        nearestFirst.add(type.cast(child));
+                        List<Integer> childPosition = new ArrayList<>(subTreePosition);
+                        childPosition.add(i);
+                        positions.add(childPosition);
+                    }
+                }
+                if (!nearestFirst.isEmpty()) {
+                    for (int i = 0; i < parentElements.size(); ++i) {
+                        if (found.put(parentElements.get(i), Boolean.TRUE) == null) {
+                            nearestFirst.add(parentElements.get(i));
+                            positions.add(parentScope.positions.get(i));
+                        }
+                    }
+                    scope = new Scope<>(positions, nearestFirst);
+                    elements = nearestFirst;
+                }
+            }
+            stack.addLast(scope);
+            elementStack.addLast(elements);
+        }
+
+        @Override
+        public void subtractNode() {
+            stack.removeLast();
+            elementStack.removeLast();
+            position.remove(position.size() - 1);
+            childCounts.remove(childCounts.size() - 1);
+        }
+
+        @Override
+        public void processPath() {}
+    }
+
+    /** Creates copies of all HTTP samplers that an element applies to (i.e. in its parent's subtree) that have their
+     * config elements applied, in the same way as JMeter does before sampling (e.g. HTTP Request Defaults and Header
+     * Managers), so their URLs and headers can be determined.
+     * The config elements in scope of each sampler are determined in a single traversal (rather than one per sampler).
+     *
+     * @param path path to a pre-processor (or other element), as returned by {@link #pathTo(HashTree, Object)}
+     * @return each sampler that the element applies to (in tree order) and its configured clone
+     */
+    public static List<Map.Entry<HTTPSamplerBase, HTTPSamplerBase>> configureSamplersInScope(List<HashTree> path) {
+        if (path.size() < 2) return Collections.emptyList();
+        SamplerConfigurer configurer = new SamplerConfigurer(inScope(path.subList(0, path.size() - 1), ConfigElement.class));
+        path.get(path.size() - 2).traverse(configurer);
+        return configurer.configured;
+    }
+
+    /** Tracks the config elements in scope of the current subtree while traversing, and applies them to each
+     * HTTP sampler.
+     */
+    static class SamplerConfigurer implements HashTreeTraverser {
+        final LinkedList<List<ConfigElement>> stack = new LinkedList<>();
+        final List<Map.Entry<HTTPSamplerBase, HTTPSamplerBase>> configured = new ArrayList<>();
+
+        SamplerConfigurer(List<ConfigElement> parentScope) {
+            stack.add(parentScope);
+        }
+
+        @Override
+        public void addNode(Object node, HashTree subTree) {
+            final List<ConfigElement> parentScope = stack.getLast();
+            List<ConfigElement> scope = parentScope;
+            for (Object child : subTree.list()) {
+                if (child instanceof ConfigElement) {
+                    scope = nearestFirst(subTree, parentScope);
+                    break;
+                }
+            }
+            stack.addLast(scope);
+            if (node instanceof HTTPSamplerBase) {
+                final HTTPSamplerBase sampler = (HTTPSamplerBase) node;
+                configured.add(new AbstractMap.SimpleImmutableEntry<>(sampler, configure(sampler, scope)));
+            }
+        }
+
+        static List<ConfigElement> nearestFirst(HashTree subTree, List<ConfigElement> parentScope) {
+            Map<Object, Boolean> found = new IdentityHashMap<>();
+            List<ConfigElement> elements = new ArrayList<>();
+            for (Object child : subTree.list()) {
+                if (child instanceof ConfigElement && found.put(child, Boolean.TRUE) == null) {
+                    elements.add((ConfigElement) child);
+                }
+            }
+            for (ConfigElement element : parentScope) {
+                if (found.put(element, Boolean.TRUE) == null) elements.add(element);
+            }
+            return elements;
+        }
+
+        @Override
+        public void subtractNode() {
+            stack.removeLast();
+        }
+
+        @Override
+        public void processPath() {}
+    }
+
+    /**
+     * @param sampler sampler to configure
+     * @param configs config elements in scope of the sampler, nearest first
+     * @return clone of the sampler with those config elements applied that JMeter would merge into it
+     */
+    static HTTPSamplerBase configure(HTTPSamplerBase sampler, List<ConfigElement> configs) {
+        HTTPSamplerBase clone = (HTTPSamplerBase) sampler.clone();
+        for (ConfigElement config : configs) {
+            if (config instanceof NoConfigMerge || !(config instanceof ConfigTestElement)) continue;
+            if (clone.applies((ConfigTestElement) config)) {
+                clone.addTestElement((ConfigTestElement) config);
+            }
+        }
+        return clone;
+    }
+}
@@ -0,0 +1,112 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/** CORS-aware HTTP server on the loopback interface, for end-to-end tests with real HTTP samplers.
+ * Answers preflight requests as per a configurable policy, all other requests with a small JSON body,
+ * and counts the requests received per method.
+ */
+public class CorsStandInServer implements AutoCloseable {
+
+    volatile long maxAge = 60; // negative to omit the header
+    volatile String allowMethods = "GET, PUT, DELETE";
+    volatile String allowHeaders = "X-Foo, X-Bar";
+    volatile String allowOrigin = null; // null to echo the request's Origin
+    volatile boolean allowCredentials = true;
+    volatile int preflightStatus = 204;
+    volatile long latency = 0; // millis, for all requests
+
+    protected final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    protected final HttpServer server;
+    protected final ExecutorService executor = Executors.newCachedThreadPool();
+
+    protected static final byte[] BODY = "{}".getBytes(StandardCharsets.UTF_8);
+
+    public CorsStandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** @return base URL of the server, without trailing slash */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        requests.computeIfAbsent(method, m -> new LongAdder()).increment();
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() >= 0) ; // drain, so the connection can be reused
+        }
+        if (latency > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final Headers headers = exchange.getResponseHeaders();
+        final String origin = exchange.getRequestHeaders().getFirst(CorsPreProcessor.ORIGIN);
+        if (origin != null) {
+            headers.set(PreflightResponse.ACCESS_CONTROL_ALLOW_ORIGIN, allowOrigin != null ? allowOrigin : origin);
+            if (allowCredentials) headers.set(PreflightResponse.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        }
+        if (CorsPreProcessor.OPTIONS.equals(method)) {
+            headers.set(PreflightResponse.ACCESS_CONTROL_ALLOW_METHODS, allowMethods);
+            headers.set(PreflightResponse.ACCESS_CONTROL_ALLOW_HEADERS, allowHeaders);
+            if (maxAge >= 0) headers.set(PreflightResponse.ACCESS_CONTROL_MAX_AGE, String.valueOf(maxAge));
+            exchange.sendResponseHeaders(preflightStatus, -1);
+        } else {
+            headers.set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * @param method HTTP method
+     * @return number of requests received with the method since the last reset
+     */
+    public long getRequests(String method) {
+        LongAdder count = requests.get(method);
+        return count == null ? 0 : count.sum();
+    }
+
+    /** Forgets the requests received and restores the default policy */
+    public void reset() {
+        requests.clear();
+        maxAge = 60;
+        allowMethods = "GET, PUT, DELETE";
+        allowHeaders = "X-Foo, X-Bar";
+        allowOrigin = null;
+        allowCredentials = true;
+        preflightStatus = 204;
+        latency = 0;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -16,8 +16,11 @@ import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 public class HTTPSamplerStub extends HTTPSamplerBase {
 
     long maxAge = 300;
-    String allowHeaders = "x-foo";
+    String allowHeaders = "x-foo"; // null to allow the requested headers
     String allowMethods = "*";
+    String allowOrigin = null; // null to omit the header
+    String responseCode = "200";
+    int cloneCount = 0;
 
     public HTTPSamplerStub() {} // for cloning
 
@@ -41,6 +44,8 @@ public class HTTPSamplerStub extends HTTPSamplerBase {
         result.setSampleLabel(url.toString());
         result.setHTTPMethod(method);
         result.setURL(url);
+        result.setResponseCode(responseCode);
+        result.setSuccessful(responseCode.startsWith("2"));
 
         result.setRequestHeaders(StreamSupport.stream(
             Spliterators.spliteratorUnknownSize(getHeaderManager().getHeaders().iterator(), Spliterator.ORDERED), false)
@@ -54,17 +59,29 @@ public class HTTPSamplerStub extends HTTPSamplerBase {
             "Access-Control-Max-Age: %d\n" +
             "Access-Control-Allow-Headers: %s\n" +
             "Access-Control-Allow-Methods: %s\n",
-                maxAge, allowHeaders, allowMethods)
+                maxAge, allowHeaders != null ? allowHeaders : getRequestedHeaders(), allowMethods)
+            + (allowOrigin != null ? "Access-Control-Allow-Origin: " + allowOrigin + "\n" : "")
         );
 
         return result;
     }
 
+    protected String getRequestedHeaders() {
+        for (int i = 0; i < getHeaderManager().size(); ++i) {
+            Header header = getHeaderManager().get(i);
+            if (header.getName().equals(CorsPreProcessor.ACCESS_CONTROL_REQUEST_HEADERS)) return header.getValue();
+        }
+        return "";
+    }
+
     public Object clone() {
+        ++cloneCount;
         Object clone = super.clone();
         ((HTTPSamplerStub) clone).maxAge = this.maxAge;
         ((HTTPSamplerStub) clone).allowHeaders = this.allowHeaders;
         ((HTTPSamplerStub) clone).allowMethods = this.allowMethods;
+        ((HTTPSamplerStub) clone).allowOrigin = this.allowOrigin;
+        ((HTTPSamplerStub) clone).responseCode = this.responseCode;
         return clone;
     }
 }
@@ -1,6 +1,7 @@
 package nz.co.breakpoint.jmeter.modifiers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleEvent;
@@ -10,7 +11,7 @@ import org.apache.jmeter.testelement.AbstractTestElement;
 /** Dummy Listener that collects sample results generated by the test instances.
  */
 public class SampleListenerStub extends AbstractTestElement implements SampleListener {
-    protected List<HTTPSampleResult> results = new ArrayList<>();
+    protected List<HTTPSampleResult> results = Collections.synchronizedList(new ArrayList<>());
 
     @Override
     public void sampleOccurred(SampleEvent sampleEvent) {
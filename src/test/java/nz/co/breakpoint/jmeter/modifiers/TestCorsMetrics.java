@@ -0,0 +1,54 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import kg.apc.emulators.TestJMeterUtils;
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestCorsMetrics {
+
+    @BeforeClass
+    public static void setUpClass() {
+        TestJMeterUtils.createJmeterEnv();
+    }
+
+    @Test
+    public void itShouldApproximatePercentiles() {
+        CorsMetrics.Histogram histogram = new CorsMetrics.Histogram();
+        for (int i = 1; i <= 100; ++i) histogram.record(i);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(63, histogram.getPercentile(50)); // bucket 32..63
+        assertEquals(100, histogram.getPercentile(99)); // capped at maximum
+    }
+
+    @Test
+    public void itShouldPublishToFileAndProperties() throws IOException {
+        File file = File.createTempFile("cors-metrics", ".csv");
+        file.deleteOnExit();
+        CorsMetrics.reset();
+        CorsMetrics metrics = CorsMetrics.get("Users, logged in");
+        metrics.cacheHits.add(3);
+        metrics.cacheMisses.increment();
+
+        CorsMetrics.publishAll(file.getPath());
+        CorsMetrics.publishAll(file.getPath());
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals(CorsMetrics.CSV_HEADER, lines.get(0));
+        assertTrue(lines.get(1).matches("\\d+,\"Users, logged in\",3,1,0,0,0,0,.*"));
+        assertEquals(0.75, metrics.getHitRatio(), 0.001);
+        assertEquals("3", JMeterUtils.getProperty("cors.Users, logged in.cacheHits"));
+    }
+}
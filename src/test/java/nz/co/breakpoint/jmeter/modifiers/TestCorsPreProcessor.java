@@ -1,14 +1,25 @@
 package nz.co.breakpoint.jmeter.modifiers;
 
 import kg.apc.emulators.TestJMeterUtils;
+import org.apache.jmeter.control.GenericController;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.engine.TreeCloner;
 import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
+import org.apache.jmeter.protocol.http.gui.HeaderPanel;
 import org.apache.jmeter.protocol.http.sampler.HTTPSampleResult;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestElement;
 import org.apache.jmeter.threads.JMeterContext;
 import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jorphan.collections.ListedHashTree;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 
 import static org.junit.Assert.*;
@@ -36,22 +47,66 @@ public class TestCorsPreProcessor {
         instance = new CorsPreProcessor();
         instance.setThreadContext(context);
         instance.setPreflightLabelSuffix("-preflight");
-        instance.listeners = Arrays.asList(resultsListener);
+        instance.testStarted();
+
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(resultsListener, instance, sampler));
+        context.setThread(new JMeterThread(tree, null, null));
         resultsListener.clear();
     }
 
+    protected CorsPreProcessor createInstance(String cacheScope) {
+        CorsPreProcessor clone = (CorsPreProcessor) instance.clone();
+        clone.setCacheScope(cacheScope);
+        clone.setThreadContext(context);
+        return clone;
+    }
+
     @Test
     public void itShouldRecognisePreflightHeaders() {
         assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Api-Version", "1.0")));
         assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Content-Type", "application/xml")));
         assertTrue(CorsPreProcessor.isPreflightHeader(new Header("X-HTTP-Method", "PUT")));
         assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=0-1023, -512")));
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=-512")));
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=1024-1023")));
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=0x1-")));
 
         assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Accept", "*/*")));
         assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Content-Type", "application/x-www-form-urlencoded")));
         assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Origin", "https://apache.org")));
         assertFalse(CorsPreProcessor.isPreflightHeader(new Header("X-HTTP-Method", "CONNECT")));
         assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=0-1023")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=1024-")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Range", "bytes=0999-1000")));
+    }
+
+    @Test
+    public void itShouldClassifyHeadersCaseInsensitively() {
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("ACCEPT-language", "en")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("Proxy-Authorization", "secret")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("SEC-Fetch-Mode", "cors")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("x-http-method-override", "trace")));
+        assertFalse(CorsPreProcessor.isPreflightHeader(new Header("content-TYPE", "text/plain;charset=UTF-8")));
+
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("X-Method-Override", "delete")));
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Proxyish", "value")));
+        assertTrue(CorsPreProcessor.isPreflightHeader(new Header("Content-Type", "application/json")));
+    }
+
+    @Test
+    public void itShouldDeriveSafelistingRulesFromMap() {
+        PreflightHeaderClassifier.Classification contentType =
+                PreflightHeaderClassifier.Classification.safelisted(CorsPreProcessor.safeListedHeaders.get("content-type"));
+        assertEquals(PreflightHeaderClassifier.Rule.SAFELISTED_PREFIX, contentType.rule);
+        assertEquals(Arrays.asList("application/x-www-form-urlencoded", "multipart/form-data", "text/plain"),
+                Arrays.asList(contentType.prefixes));
+        assertEquals(PreflightHeaderClassifier.Rule.SAFELISTED_RANGE,
+                PreflightHeaderClassifier.Classification.safelisted(CorsPreProcessor.safeListedHeaders.get("range")).rule);
+        assertEquals(PreflightHeaderClassifier.Rule.SAFELISTED_PATTERN,
+                PreflightHeaderClassifier.Classification.safelisted("v[0-9]+").rule);
+        assertEquals(PreflightHeaderClassifier.Rule.SAFELISTED,
+                PreflightHeaderClassifier.Classification.safelisted(CorsPreProcessor.safeListedHeaders.get("accept")).rule);
     }
 
     @Test
@@ -74,6 +129,121 @@ public class TestCorsPreProcessor {
         assertEquals(Arrays.asList("*"), instance.getAllowMethods(prev));
     }
 
+    @Test
+    public void itShouldApplyBrowserProfileLimits() {
+        SampleResult prev = SampleResult.createTestSample(1);
+        prev.setResponseHeaders("Access-Control-Max-Age: 86400\n");
+        instance.setCacheMaxSize(10);
+        instance.setDefaultCacheExpiry(60);
+
+        instance.setBrowserProfile("Chromium");
+        assertEquals(7200L, instance.getMaxAge(prev));
+        assertEquals(1024, instance.getBrowser().getMaxEntries(instance.getCacheMaxSize()));
+        instance.setBrowserProfile("Safari");
+        assertEquals(600L, instance.getMaxAge(prev));
+        assertEquals(0, instance.getBrowser().getMaxEntries(instance.getCacheMaxSize()));
+        instance.setBrowserProfile("Firefox");
+        assertEquals(86400L, instance.getMaxAge(prev));
+        assertEquals(100, instance.getBrowser().getMaxEntries(instance.getCacheMaxSize()));
+
+        prev.setResponseHeaders("");
+        assertEquals(5L, instance.getMaxAge(prev));
+        instance.setBrowserProfile("Custom");
+        assertEquals(60L, instance.getMaxAge(prev));
+        assertEquals(10, instance.getBrowser().getMaxEntries(instance.getCacheMaxSize()));
+    }
+
+    @Test
+    public void itShouldFailAndNotCacheInvalidPreflights() {
+        instance.setValidatePreflight(true);
+        sampler.responseCode = "503";
+        sampler.allowOrigin = "https://origin.co.nz";
+        instance.process();
+        assertFalse(resultsListener.results.get(0).isSuccessful());
+
+        sampler.responseCode = "204";
+        sampler.allowOrigin = null;
+        instance.process();
+        SampleResult result = resultsListener.results.get(1);
+        assertFalse(result.isSuccessful());
+        assertEquals("Missing Access-Control-Allow-Origin", result.getAssertionResults()[0].getFailureMessage());
+        assertEquals(2, instance.getMetrics().getFailures());
+
+        sampler.allowOrigin = "*";
+        instance.process();
+        instance.process();
+        assertEquals(3, resultsListener.results.size());
+        assertTrue(resultsListener.results.get(2).isSuccessful());
+        assertEquals(0, instance.getMetrics().getBlocked());
+    }
+
+    @Test
+    public void itShouldOnlyTreatRequestsWithCookiesAsCredentialed() {
+        instance.setValidatePreflight(true);
+        sampler.allowOrigin = "*";
+        sampler.allowHeaders = null;
+        sampler.addHeader("Authorization", "Bearer token");
+        instance.process();
+        assertTrue(resultsListener.results.get(0).isSuccessful()); // no Access-Control-Allow-Credentials needed
+
+        sampler.addHeader("Cookie", "session=1");
+        instance.process();
+        SampleResult result = resultsListener.results.get(1);
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getAssertionResults()[0].getFailureMessage().endsWith("with credentials"));
+
+        CorsPreProcessor omit = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        omit.setCredentialsMode(CorsPreProcessor.CREDENTIALS_MODE_OMIT);
+        omit.process();
+        assertTrue(resultsListener.results.get(2).isSuccessful());
+
+        CorsPreProcessor include = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        include.setCredentialsMode(CorsPreProcessor.CREDENTIALS_MODE_INCLUDE);
+        sampler.getHeaderManager().removeHeaderNamed("Cookie");
+        include.process();
+        assertFalse(resultsListener.results.get(3).isSuccessful());
+    }
+
+    @Test
+    public void itShouldBlockRequestsAfterFailedPreflight() throws Exception {
+        instance.setValidatePreflight(true);
+        instance.setBlockFailedRequests(true);
+        instance.process();
+
+        assertEquals(1, instance.getMetrics().getBlocked());
+        assertEquals(CorsPreProcessor.BLOCKED_PROTOCOL, sampler.getProtocol());
+        SampleResult result = sampler.sample();
+        assertFalse(result.isSuccessful());
+        assertEquals(1, resultsListener.results.size()); // only the preflight was sent
+    }
+
+    @Test
+    public void itShouldSuppressPreflightsAfterFailure() {
+        instance.setNegativeCacheTtl(60);
+        sampler.responseCode = "503";
+        instance.process();
+        instance.process();
+        instance.process();
+
+        assertEquals(1, resultsListener.results.size());
+        assertEquals(1, instance.getMetrics().getPreflights());
+        assertEquals(2, instance.getMetrics().getSuppressed());
+    }
+
+    @Test
+    public void itShouldBackOffWithJitter() {
+        instance.setNegativeCacheTtl(10);
+        assertEquals(10000, instance.getNegativeTtl(3));
+
+        instance.setNegativeCacheBackoff(true);
+        instance.setNegativeCacheMaxTtl(60);
+        for (int i = 0; i < 100; ++i) {
+            long ttl = instance.getNegativeTtl(3);
+            assertTrue(ttl >= 20000 && ttl <= 40000);
+            assertTrue(instance.getNegativeTtl(10) >= 30000 && instance.getNegativeTtl(10) <= 60000);
+        }
+    }
+
     @Test
     public void itShouldIgnoreSimpleRequests() {
         sampler.getHeaderManager().removeHeaderNamed("X-foo");
@@ -81,6 +251,22 @@ public class TestCorsPreProcessor {
         assertEquals(0, resultsListener.results.size());
     }
 
+    @Test
+    public void itShouldReuseProfileUntilHeadersChange() {
+        CorsProfile profile = instance.getProfile(sampler);
+        assertTrue(profile.needsPreflight());
+        assertEquals("X-foo", profile.getRequestHeaders());
+        assertSame(profile, instance.getProfile(sampler));
+
+        sampler.addHeader("Content-Type", "application/json");
+        CorsProfile changed = instance.getProfile(sampler);
+        assertNotSame(profile, changed);
+        assertEquals("X-foo,Content-Type", changed.getRequestHeaders());
+
+        sampler.getHeaderManager().removeHeaderNamed("Origin");
+        assertFalse(instance.getProfile(sampler).hasOrigin());
+    }
+
     @Test
     public void itShouldCreatePreflightRequests() {
         instance.process();
@@ -97,6 +283,48 @@ public class TestCorsPreProcessor {
         assertEquals(1, resultsListener.results.size());
     }
 
+    @Test
+    public void itShouldNotCloneSamplerForCachedPreflights() {
+        instance.process();
+        assertEquals(1, sampler.cloneCount);
+        instance.process();
+        instance.process();
+        assertEquals(1, sampler.cloneCount);
+    }
+
+    @Test
+    public void itShouldCachePerOriginAndNormalizedUrl() {
+        instance.process();
+        sampler.setPath("https://Target.co.nz:443/");
+        instance.process();
+        assertEquals(1, resultsListener.results.size());
+
+        sampler.getHeaderManager().removeHeaderNamed("Origin");
+        sampler.addHeader("Origin", "https://other.co.nz");
+        instance.process();
+        assertEquals(2, resultsListener.results.size());
+
+        sampler.addHeader("Authorization", "Bearer token");
+        instance.process();
+        assertEquals(3, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldOptionallyIgnoreQueryString() {
+        sampler.setPath("https://target.co.nz/search?q=one");
+        instance.process();
+        sampler.setPath("https://target.co.nz/search?q=two");
+        instance.process();
+        assertEquals(2, resultsListener.results.size());
+
+        instance.setIgnoreQueryString(true);
+        sampler.setPath("https://target.co.nz/search?q=three");
+        instance.process();
+        sampler.setPath("https://target.co.nz/search?q=four");
+        instance.process();
+        assertEquals(3, resultsListener.results.size());
+    }
+
     @Test
     public void itShouldExpireCachedRequests() {
         sampler.maxAge = 0; // make cache expire immediately
@@ -105,6 +333,366 @@ public class TestCorsPreProcessor {
         assertEquals(2, resultsListener.results.size());
     }
 
+    @Test
+    public void itShouldShareCacheBetweenThreads() {
+        createInstance(CorsPreProcessor.CACHE_SCOPE_GLOBAL).process();
+        createInstance(CorsPreProcessor.CACHE_SCOPE_GLOBAL).process();
+        assertEquals(1, resultsListener.results.size());
+
+        createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD).process();
+        assertEquals(2, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldNotClearSharedCacheEachIteration() {
+        CorsPreProcessor shared = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD_GROUP);
+        shared.setClearEachIteration("true");
+        shared.process();
+        shared.testIterationStart(null);
+        shared.process();
+        assertEquals(1, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldClearEveryNIterations() {
+        instance.setClearEachIteration("false");
+        instance.setClearEveryIterations(2);
+        for (int i = 0; i < 6; ++i) {
+            instance.testIterationStart(null);
+            instance.process();
+        }
+        assertEquals(3, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldClearEntriesOlderThanGivenAge() {
+        instance.setClearEachIteration("false");
+        instance.setClearOlderThan(60);
+        instance.testIterationStart(null);
+        instance.process();
+        instance.testIterationStart(null);
+        instance.process();
+        assertEquals(1, resultsListener.results.size());
+
+        instance.getPreflightCache().clearInsertedBefore(System.nanoTime()); // as if 60 seconds had passed
+        instance.process();
+        assertEquals(2, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldClearAtRandom() {
+        instance.setClearEachIteration("false");
+        instance.setClearPercentage(100);
+        instance.testIterationStart(null);
+        instance.process();
+        instance.testIterationStart(null);
+        instance.process();
+        assertEquals(2, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldSendWarmUpPreflightsInBackground() throws InterruptedException {
+        HeaderManager headers = createHeaderManager("Origin", "https://origin.co.nz");
+        headers.add(new Header("X-foo", "bar"));
+        HTTPSamplerStub first = new HTTPSamplerStub("first", "PUT", "https://target.co.nz/first");
+        HTTPSamplerStub second = new HTTPSamplerStub("second", "GET", "https://target.co.nz/second");
+
+        instance.setAsyncPreflight(true);
+        instance.setAsyncPoolSize(2);
+        instance.setWarmUpUrls("DELETE https://target.co.nz/third\n");
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(resultsListener, instance, headers, first, second));
+
+        JMeterThread thread = context.getThread();
+        context.setThread(new JMeterThread(tree, null, null));
+        try {
+            instance.testIterationStart(null);
+            for (int i = 0; i < 100 && instance.pendingNotifications.size() < 3; ++i) Thread.sleep(10);
+        } finally {
+            context.setThread(thread);
+            instance.testEnded();
+        }
+        assertEquals(3, instance.pendingNotifications.size());
+        assertEquals(0, resultsListener.results.size()); // not notified on the background threads
+
+        sampler.setPath("https://target.co.nz/second");
+        instance.process(); // should be cached
+        assertEquals(3, resultsListener.results.size());
+        assertTrue(instance.pendingNotifications.isEmpty());
+    }
+
+    @Test
+    public void itShouldNotifyListenersOfWarmUpSamplers() throws InterruptedException {
+        HeaderManager headers = createHeaderManager("Origin", "https://origin.co.nz");
+        headers.add(new Header("X-foo", "bar"));
+        HTTPSamplerStub first = new HTTPSamplerStub("first", "PUT", "https://target.co.nz/first");
+        SampleListenerStub firstListener = new SampleListenerStub();
+
+        instance.setAsyncPreflight(true);
+        LoopController loop = new LoopController();
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(loop, Arrays.asList(resultsListener, instance, headers, first));
+        tree.add(Arrays.asList(loop, first), firstListener);
+
+        JMeterThread thread = context.getThread();
+        context.setThread(new JMeterThread(tree, null, null));
+        try {
+            instance.testIterationStart(null);
+            for (int i = 0; i < 100 && instance.pendingNotifications.isEmpty(); ++i) Thread.sleep(10);
+            instance.notifyPending();
+        } finally {
+            context.setThread(thread);
+            instance.testEnded();
+        }
+        assertEquals(1, resultsListener.results.size());
+        assertEquals(1, firstListener.results.size()); // in scope of the sampler only
+    }
+
+    @Test
+    public void itShouldBatchPreflightHeadersOfSamplersInScope() {
+        HeaderManager origin = createHeaderManager("Origin", "https://origin.co.nz");
+        HTTPSamplerStub first = new HTTPSamplerStub("first", "PUT", "https://target.co.nz/items");
+        HTTPSamplerStub second = new HTTPSamplerStub("second", "PUT", "https://target.co.nz/items");
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(instance, origin, first, second));
+        tree.add(Arrays.asList(tree.getArray()[0], first), createHeaderManager("X-a", "1"));
+        tree.add(Arrays.asList(tree.getArray()[0], second), createHeaderManager("X-b", "2"));
+
+        instance.setBatchPreflightHeaders(true);
+        JMeterThread thread = context.getThread();
+        context.setThread(new JMeterThread(tree, null, null));
+        try {
+            instance.threadStarted();
+        } finally {
+            context.setThread(thread);
+        }
+
+        sampler.allowHeaders = null; // server only allows requested headers
+        sampler.setMethod("PUT");
+        sampler.setPath("https://target.co.nz/items");
+        sampler.getHeaderManager().removeHeaderNamed("X-foo");
+        sampler.addHeader("X-a", "1");
+        instance.process();
+        assertEquals(1, resultsListener.results.size());
+        assertTrue(resultsListener.results.get(0).getRequestHeaders().contains("Access-Control-Request-Headers: X-a,X-b"));
+
+        sampler.getHeaderManager().removeHeaderNamed("X-a");
+        sampler.addHeader("X-b", "2");
+        instance.process();
+        assertEquals(1, resultsListener.results.size());
+    }
+
+    @Test
+    public void itShouldBatchPreflightHeadersPerPreProcessorWithSameName() {
+        HeaderManager origin = createHeaderManager("Origin", "https://origin.co.nz");
+        GenericController a = new GenericController(), b = new GenericController();
+        CorsPreProcessor other = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        HTTPSamplerStub first = new HTTPSamplerStub("first", "PUT", "https://target.co.nz/items");
+        HTTPSamplerStub second = new HTTPSamplerStub("second", "PUT", "https://target.co.nz/items");
+        ListedHashTree tree = new ListedHashTree();
+        LoopController loop = new LoopController();
+        tree.add(loop, Arrays.asList(origin, a, b));
+        tree.add(Arrays.asList(loop, a), Arrays.asList(instance, first));
+        tree.add(Arrays.asList(loop, b), Arrays.asList(other, second));
+        tree.add(Arrays.asList(loop, a, first), createHeaderManager("X-a", "1"));
+        tree.add(Arrays.asList(loop, b, second), createHeaderManager("X-b", "2"));
+
+        instance.setBatchPreflightHeaders(true);
+        other.setBatchPreflightHeaders(true);
+        assertEquals(instance.getName(), other.getName());
+        JMeterThread thread = context.getThread();
+        context.setThread(new JMeterThread(tree, null, null));
+        try {
+            instance.threadStarted();
+            other.threadStarted();
+        } finally {
+            context.setThread(thread);
+        }
+        assertNotSame(instance.batches, other.batches);
+
+        sampler.allowHeaders = null; // server only allows requested headers
+        sampler.setMethod("PUT");
+        sampler.setPath("https://target.co.nz/items");
+        sampler.getHeaderManager().removeHeaderNamed("X-foo");
+        sampler.addHeader("X-b", "2");
+        other.process();
+        assertEquals(1, resultsListener.results.size());
+        String requestHeaders = resultsListener.results.get(0).getRequestHeaders();
+        assertTrue(requestHeaders.contains("Access-Control-Request-Headers: X-b"));
+        assertFalse(requestHeaders.contains("X-a"));
+    }
+
+    protected static HeaderManager createHeaderManager(String name, String value) {
+        HeaderManager headers = new HeaderManager();
+        headers.setProperty(TestElement.GUI_CLASS, HeaderPanel.class.getName());
+        headers.add(new Header(name, value));
+        return headers;
+    }
+
+    @Test
+    public void itShouldOnlyNotifyListenersInScopeOfSampler() {
+        SampleListenerStub other = new SampleListenerStub();
+        HTTPSamplerStub sibling = new HTTPSamplerStub("sibling", "GET", "https://target.co.nz");
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(resultsListener, instance, sampler, sibling));
+        tree.add(Arrays.asList(tree.getArray()[0], sibling), other);
+        context.setThread(new JMeterThread(tree, null, null));
+
+        instance.process();
+        assertEquals(1, resultsListener.results.size());
+        assertEquals(0, other.results.size());
+        assertEquals(Arrays.asList(resultsListener), instance.getListeners(sampler));
+        assertEquals(Arrays.asList(other, resultsListener), instance.getListeners(sibling));
+    }
+
+    @Test
+    public void itShouldShareListenersThatAreNotClonedPerThread() {
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(new ResultCollector(), instance, sampler));
+        context.setThread(new JMeterThread(tree, null, null));
+        CorsPreProcessor other = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+
+        assertSame(instance.getListeners(sampler), other.getListeners(sampler));
+    }
+
+    @Test
+    public void itShouldFindListenersOfEachThreadsCloneByPosition() {
+        SampleListenerStub other = new SampleListenerStub();
+        HTTPSamplerStub sibling = new HTTPSamplerStub("sibling", "GET", "https://target.co.nz");
+        ListedHashTree tree = new ListedHashTree();
+        tree.add(new LoopController(), Arrays.asList(resultsListener, instance, sampler, sibling));
+        tree.add(Arrays.asList(tree.getArray()[0], sibling), other);
+        context.setThread(new JMeterThread(tree, null, null));
+        assertEquals(Arrays.asList(other, resultsListener), instance.getListeners(sibling));
+
+        TreeCloner cloner = new TreeCloner();
+        tree.traverse(cloner);
+        ListedHashTree clonedTree = cloner.getClonedTree();
+        Object[] cloned = clonedTree.getArray(new Object[] { clonedTree.getArray()[0] });
+        Object clonedListener = clonedTree.getArray(new Object[] { clonedTree.getArray()[0], cloned[3] })[0];
+        context.setThread(new JMeterThread(clonedTree, null, null));
+        CorsPreProcessor clonedInstance = (CorsPreProcessor) cloned[1];
+        clonedInstance.setThreadContext(context);
+
+        assertEquals(2, clonedInstance.getListeners((HTTPSamplerStub) cloned[3]).size());
+        assertSame(clonedListener, clonedInstance.getListeners((HTTPSamplerStub) cloned[3]).get(0));
+        assertSame(cloned[0], clonedInstance.getListeners((HTTPSamplerStub) cloned[3]).get(1));
+        assertEquals(Arrays.asList(cloned[0]), clonedInstance.getListeners((HTTPSamplerStub) cloned[2]));
+    }
+
+    @Test
+    public void itShouldCountCacheHitsAndSkippedRequests() {
+        instance.process();
+        instance.process();
+        sampler.getHeaderManager().removeHeaderNamed("X-foo");
+        instance.process();
+        sampler.getHeaderManager().removeHeaderNamed("Origin");
+        instance.process();
+
+        CorsMetrics metrics = instance.getMetrics();
+        assertEquals(1, metrics.getCacheHits());
+        assertEquals(1, metrics.getCacheMisses());
+        assertEquals(1, metrics.getPreflights());
+        assertEquals(1, metrics.getSimpleRequests());
+        assertEquals(1, metrics.getNoOrigin());
+        assertEquals(300, metrics.getMaxAge().getMax());
+    }
+
+    @Test
+    public void itShouldReusePooledLightweightPreflights() {
+        instance.setLightweightPreflight(true);
+        sampler.maxAge = 0; // make cache expire immediately
+        sampler.setImageParser(true);
+        instance.process();
+        sampler.setPath("https://target.co.nz/other");
+        sampler.addHeader("X-bar", "baz");
+        instance.process();
+        assertEquals(1, sampler.cloneCount);
+
+        assertEquals(2, resultsListener.results.size());
+        HTTPSampleResult result = resultsListener.results.get(1);
+        assertEquals("OPTIONS", result.getHTTPMethod());
+        assertEquals("https://target.co.nz/other", result.getUrlAsString());
+        assertTrue(result.getRequestHeaders().contains("Access-Control-Request-Headers: X-foo,X-bar"));
+        assertEquals(0, result.getResponseData().length);
+        assertFalse(instance.pooledPreflights.get(sampler).isImageParser());
+    }
+
+    @Test
+    public void itShouldStartWarmFromSnapshotOfPreviousTest() throws IOException {
+        File file = File.createTempFile("preflight", ".snapshot");
+        assertTrue(file.delete());
+        file.deleteOnExit();
+        instance.setSnapshotFile(file.getPath());
+        instance.setWarmPercentage(100);
+        instance.testStarted();
+        instance.process();
+        instance.testEnded();
+        assertTrue(file.exists());
+
+        CorsPreProcessor warm = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        warm.testStarted();
+        warm.process();
+        assertEquals(1, resultsListener.results.size());
+
+        CorsPreProcessor cold = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        cold.setWarmPercentage(0);
+        cold.process();
+        assertEquals(2, resultsListener.results.size());
+        warm.testEnded();
+    }
+
+    @Test
+    public void itShouldWarmFromSnapshotOnlyWhenMissedAfterClearing() throws IOException {
+        File file = File.createTempFile("preflight", ".snapshot");
+        assertTrue(file.delete());
+        file.deleteOnExit();
+        instance.setSnapshotFile(file.getPath());
+        instance.testStarted();
+        instance.process();
+        instance.testEnded();
+
+        CorsPreProcessor warm = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        warm.setClearEachIteration("true");
+        warm.setWarmPercentage(100);
+        warm.testStarted();
+        warm.testIterationStart(null);
+        assertEquals(0, warm.getPreflightCache().size());
+        warm.process();
+        assertEquals(1, resultsListener.results.size()); // from the snapshot, without preflight
+        assertEquals(1, warm.getPreflightCache().size());
+        assertEquals(1, warm.getMetrics().getCacheHits());
+
+        warm.setWarmPercentage(0);
+        warm.testIterationStart(null);
+        warm.process();
+        assertEquals(2, resultsListener.results.size());
+        warm.testEnded();
+    }
+
+    @Test
+    public void itShouldKeepLoadedPoliciesThatWereNotRequestedAgain() throws IOException {
+        File file = File.createTempFile("preflight", ".snapshot");
+        assertTrue(file.delete());
+        file.deleteOnExit();
+        instance.setSnapshotFile(file.getPath());
+        instance.testStarted();
+        instance.process();
+        instance.testEnded();
+        PreflightSnapshot snapshot = PreflightSnapshot.load(file.toPath());
+        PreflightCacheKey other = new PreflightCacheKey("https://origin.co.nz", "https://target.co.nz/other", false);
+        snapshot.record(other, Arrays.asList("PUT"), Arrays.asList("x-foo"), 60);
+        snapshot.save(file.toPath());
+
+        CorsPreProcessor next = createInstance(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        next.setWarmPercentage(0);
+        next.testStarted();
+        next.process(); // fetches only the first policy again
+        next.testEnded();
+        assertEquals(2, resultsListener.results.size());
+        assertEquals(2, PreflightSnapshot.load(file.toPath()).size());
+    }
+
     @Test
     public void itShouldRemoveAuthHeaderFromPreflight() {
         sampler.addHeader("Authorization", "something secret");
@@ -0,0 +1,247 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import kg.apc.emulators.TestJMeterUtils;
+import org.apache.jmeter.control.LoopController;
+import org.apache.jmeter.engine.event.LoopIterationEvent;
+import org.apache.jmeter.protocol.http.control.Header;
+import org.apache.jmeter.protocol.http.control.HeaderManager;
+import org.apache.jmeter.protocol.http.sampler.HTTPSamplerProxy;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterThread;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.threads.ThreadGroup;
+import org.apache.jorphan.collections.ListedHashTree;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+/** Runs the CORS Pre-Processor with real HTTP samplers against a local {@link CorsStandInServer},
+ * on many threads that each have their own context and clones of the test elements, as in JMeter.
+ */
+public class TestCorsPreProcessorIntegration {
+    protected static final String ORIGIN = "https://origin.co.nz";
+    protected static final int THREADS = 16;
+    protected static final int ITERATIONS = 20;
+
+    protected static CorsStandInServer server;
+
+    protected CorsPreProcessor instance;
+    protected List<HTTPSamplerProxy> samplers;
+    protected ThreadGroup threadGroup;
+    protected final LongAdder failedRequests = new LongAdder();
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TestJMeterUtils.createJmeterEnv();
+        server = new CorsStandInServer();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        server.close();
+    }
+
+    @Before
+    public void setUp() {
+        server.reset();
+        instance = new CorsPreProcessor();
+        instance.setPreflightLabelSuffix("-preflight");
+        instance.setCacheScope(CorsPreProcessor.CACHE_SCOPE_THREAD);
+        instance.setClearEachIteration("false"); // same user throughout
+        samplers = new ArrayList<>();
+        threadGroup = new ThreadGroup();
+        threadGroup.setName("Integration");
+        CorsMetrics.reset();
+    }
+
+    protected HTTPSamplerProxy addSampler(String method, String path, String... headers) {
+        HTTPSamplerProxy sampler = new HTTPSamplerProxy();
+        sampler.setName(method + " " + path);
+        sampler.setMethod(method);
+        sampler.setPath(server.getUrl() + path);
+        sampler.setUseKeepAlive(true);
+        HeaderManager hm = new HeaderManager();
+        hm.add(new Header(CorsPreProcessor.ORIGIN, ORIGIN));
+        for (String name : headers) hm.add(new Header(name, "value"));
+        sampler.setHeaderManager(hm);
+        samplers.add(sampler);
+        return sampler;
+    }
+
+    /** Runs the samplers in order on each thread, each with its own clones of the pre-processor and samplers
+     * (whose running version is recovered after sampling, as JMeter does).
+     */
+    protected void runThreads(int threads, int iterations) throws Exception {
+        instance.testStarted();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                futures.add(executor.submit(() -> {
+                    runThread(start, iterations);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            instance.testEnded();
+        }
+    }
+
+    protected void runThread(CountDownLatch start, int iterations) throws InterruptedException {
+        JMeterContext context = JMeterContextService.getContext();
+        context.setThreadGroup(threadGroup);
+        context.setVariables(new JMeterVariables());
+        CorsPreProcessor clone = (CorsPreProcessor) instance.clone();
+        clone.setThreadContext(context);
+        List<HTTPSamplerProxy> clones = new ArrayList<>();
+        for (HTTPSamplerProxy sampler : samplers) {
+            HTTPSamplerProxy s = (HTTPSamplerProxy) sampler.clone();
+            s.setRunningVersion(true);
+            clones.add(s);
+        }
+        ListedHashTree tree = new ListedHashTree();
+        LoopController loop = new LoopController();
+        tree.add(loop, clone);
+        tree.add(loop, clones);
+        context.setThread(new JMeterThread(tree, null, null));
+        clone.threadStarted();
+
+        start.await();
+        try {
+            for (int i = 0; i < iterations; ++i) {
+                clone.testIterationStart(new LoopIterationEvent(loop, i));
+                for (HTTPSamplerProxy sampler : clones) {
+                    context.setCurrentSampler(sampler);
+                    clone.process();
+                    SampleResult result = sampler.sample();
+                    if (!result.isSuccessful()) failedRequests.increment();
+                    sampler.recoverRunningVersion();
+                }
+            }
+        } finally {
+            clones.get(0).threadFinished(); // closes this thread's connections
+        }
+    }
+
+    @Test
+    public void itShouldSendOnePreflightPerThreadAndUrl() throws Exception {
+        addSampler("PUT", "/items/1", "X-Foo");
+        addSampler("PUT", "/items/2", "X-Foo");
+        addSampler("GET", "/items/3"); // simple request
+        runThreads(THREADS, ITERATIONS);
+
+        assertEquals(THREADS * 2, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * ITERATIONS * 2, server.getRequests("PUT"));
+        assertEquals(THREADS * ITERATIONS, server.getRequests("GET"));
+        assertEquals(0, failedRequests.sum());
+        CorsMetrics metrics = CorsMetrics.get("Integration");
+        assertEquals(THREADS * 2, metrics.getCacheMisses());
+        assertEquals(THREADS * (ITERATIONS - 1) * 2, metrics.getCacheHits());
+    }
+
+    @Test
+    public void itShouldSendOnePreflightPerUrlWithSharedCache() throws Exception {
+        instance.setCacheScope(CorsPreProcessor.CACHE_SCOPE_GLOBAL);
+        server.latency = 20; // so that threads wait for preflights in flight
+        addSampler("DELETE", "/items/1", "X-Foo");
+        addSampler("DELETE", "/items/2", "X-Foo");
+        runThreads(THREADS, 5);
+
+        assertEquals(2, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * 5 * 2, server.getRequests("DELETE"));
+        assertEquals(0, failedRequests.sum());
+    }
+
+    @Test
+    public void itShouldReuseCachedPolicyForOtherHeaders() throws Exception {
+        addSampler("PUT", "/items/1", "X-Foo");
+        addSampler("PUT", "/items/1", "X-Foo", "X-Bar"); // allowed by the first preflight response
+        addSampler("PUT", "/items/1", "X-Baz"); // not allowed, so preflight every time
+        runThreads(THREADS, ITERATIONS);
+
+        assertEquals(THREADS + THREADS * ITERATIONS, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * ITERATIONS * 3, server.getRequests("PUT"));
+    }
+
+    @Test
+    public void itShouldBlockRequestsAndSuppressPreflightsAfterFailure() throws Exception {
+        instance.setValidatePreflight(true);
+        instance.setBlockFailedRequests(true);
+        instance.setNegativeCacheTtl(60);
+        server.allowOrigin = "https://other.co.nz";
+        addSampler("PUT", "/items/1", "X-Foo");
+        addSampler("GET", "/items/2");
+        runThreads(THREADS, ITERATIONS);
+
+        assertEquals(THREADS, server.getRequests("OPTIONS"));
+        assertEquals(0, server.getRequests("PUT"));
+        assertEquals(THREADS * ITERATIONS, server.getRequests("GET")); // recovered from blocking
+        assertEquals(THREADS * ITERATIONS, failedRequests.sum());
+        CorsMetrics metrics = CorsMetrics.get("Integration");
+        assertEquals(THREADS, metrics.getFailures());
+        assertEquals(THREADS * (ITERATIONS - 1), metrics.getSuppressed());
+        assertEquals(THREADS * ITERATIONS, metrics.getBlocked());
+    }
+
+    @Test
+    public void itShouldAllowAnyOriginForBearerTokenRequests() throws Exception {
+        instance.setValidatePreflight(true);
+        instance.setBlockFailedRequests(true);
+        server.allowOrigin = "*";
+        server.allowCredentials = false;
+        server.allowHeaders = "X-Foo, Authorization";
+        addSampler("PUT", "/items/1", "X-Foo", "Authorization");
+        runThreads(THREADS, ITERATIONS);
+
+        assertEquals(THREADS, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * ITERATIONS, server.getRequests("PUT"));
+        assertEquals(0, failedRequests.sum());
+        assertEquals(0, CorsMetrics.get("Integration").getFailures());
+    }
+
+    @Test
+    public void itShouldWarmUpPreflightsInBackground() throws Exception {
+        instance.setAsyncPreflight(true);
+        server.latency = 20; // so that some requests wait for warm-up preflights in flight
+        addSampler("PUT", "/items/1", "X-Foo");
+        addSampler("DELETE", "/items/2", "X-Foo");
+        addSampler("GET", "/items/3"); // simple request
+        runThreads(THREADS, 5);
+
+        assertEquals(THREADS * 2, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * 5, server.getRequests("PUT"));
+        assertEquals(THREADS * 5, server.getRequests("DELETE"));
+        assertEquals(0, failedRequests.sum());
+    }
+
+    @Test
+    public void itShouldSendLightweightPreflights() throws Exception {
+        instance.setLightweightPreflight(true);
+        addSampler("PUT", "/items/1", "X-Foo");
+        addSampler("PUT", "/items/1", "X-Baz"); // not allowed, so preflight every time (reusing pooled preflights)
+        runThreads(THREADS, ITERATIONS);
+
+        assertEquals(THREADS + THREADS * ITERATIONS, server.getRequests("OPTIONS"));
+        assertEquals(THREADS * ITERATIONS * 2, server.getRequests("PUT"));
+        assertEquals(0, failedRequests.sum());
+        assertEquals(THREADS + THREADS * ITERATIONS, CorsMetrics.get("Integration").getCacheMisses());
+    }
+}
@@ -0,0 +1,231 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestPreflightCache {
+    protected static final long FUTURE = System.currentTimeMillis() + 60000;
+    protected static final String ORIGIN = "https://source.co.nz";
+
+    protected static PreflightCacheKey key(String url) {
+        return new PreflightCacheKey(ORIGIN, url, false);
+    }
+
+    @Test
+    public void itShouldMatchAllowedMethodsAndHeaders() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("put", "DELETE"), Arrays.asList("X-Foo"), FUTURE);
+
+        assertTrue(cache.contains(key("https://target.co.nz"), "PUT", Arrays.asList("x-foo")));
+        assertTrue(cache.contains(key("https://target.co.nz"), "delete", Collections.emptyList()));
+        assertFalse(cache.contains(key("https://target.co.nz"), "PATCH", Collections.emptyList()));
+        assertFalse(cache.contains(key("https://target.co.nz"), "PUT", Arrays.asList("x-foo", "x-bar")));
+        assertFalse(cache.contains(key("https://other.co.nz"), "PUT", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldMatchNonStandardMethods() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("CHICKEN", "HEAD"), Collections.emptyList(), FUTURE);
+
+        assertTrue(cache.contains(key("https://target.co.nz"), "chicken", Collections.emptyList()));
+        assertTrue(cache.contains(key("https://target.co.nz"), "HEAD", Collections.emptyList()));
+        assertFalse(cache.contains(key("https://target.co.nz"), "EGG", Collections.emptyList()));
+        assertFalse(cache.contains(key("https://target.co.nz"), "GET", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldNotApplyWildcardToAuthorization() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("*"), Arrays.asList("*"), FUTURE);
+
+        assertTrue(cache.contains(key("https://target.co.nz"), "PATCH", Arrays.asList("x-foo")));
+        assertFalse(cache.contains(key("https://target.co.nz"), "PATCH", Arrays.asList("Authorization")));
+    }
+
+    @Test
+    public void itShouldTreatWildcardLiterallyForCredentialedRequests() {
+        PreflightCache cache = new PreflightCache(0);
+        PreflightCacheKey key = new PreflightCacheKey(ORIGIN, "https://target.co.nz", true);
+        cache.put(key, Arrays.asList("*", "PUT"), Arrays.asList("*", "X-Foo"), FUTURE);
+
+        assertTrue(cache.contains(key, "PUT", Arrays.asList("x-foo")));
+        assertFalse(cache.contains(key, "PATCH", Collections.emptyList()));
+        assertFalse(cache.contains(key, "PUT", Arrays.asList("x-bar")));
+    }
+
+    @Test
+    public void itShouldMergeEntriesForSameUrl() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Arrays.asList("x-foo"), FUTURE);
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Arrays.asList("x-bar"), FUTURE);
+
+        assertEquals(1, cache.size());
+        assertTrue(cache.contains(key("https://target.co.nz"), "PUT", Arrays.asList("x-foo", "x-bar")));
+    }
+
+    @Test
+    public void itShouldExpireEntries() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), System.currentTimeMillis() - 1);
+
+        assertFalse(cache.contains(key("https://target.co.nz"), "PUT", Collections.emptyList()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void itShouldEvictLeastRecentlyUsedEntries() {
+        PreflightCache cache = new PreflightCache(2);
+        cache.put(key("https://one.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        cache.put(key("https://two.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        assertTrue(cache.contains(key("https://one.co.nz"), "PUT", Collections.emptyList()));
+        cache.put(key("https://three.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(key("https://one.co.nz"), "PUT", Collections.emptyList()));
+        assertFalse(cache.contains(key("https://two.co.nz"), "PUT", Collections.emptyList()));
+        assertTrue(cache.contains(key("https://three.co.nz"), "PUT", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldSpreadEntriesOverSegments() {
+        PreflightCache cache = new PreflightCache(0, 5);
+        assertEquals(8, cache.segments.length);
+        for (int i = 0; i < 100; ++i) {
+            cache.put(key("https://target.co.nz/" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        }
+        assertEquals(100, cache.size());
+        assertTrue(cache.contains(key("https://target.co.nz/42"), "PUT", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldCoalesceConcurrentPreflights() throws InterruptedException {
+        PreflightCache cache = new PreflightCache(0, 4);
+        assertNull(cache.startPreflight("key"));
+        CountDownLatch pending = cache.startPreflight("key");
+        assertNotNull(pending);
+
+        cache.endPreflight("key");
+        assertTrue(pending.await(0, TimeUnit.MILLISECONDS));
+        assertNull(cache.startPreflight("key"));
+    }
+
+    @Test
+    public void itShouldKeyOnOriginAndCredentials() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+
+        assertTrue(cache.contains(new PreflightCacheKey(ORIGIN, "https://target.co.nz", false), "PUT", Collections.emptyList()));
+        assertFalse(cache.contains(new PreflightCacheKey("https://other.co.nz", "https://target.co.nz", false), "PUT", Collections.emptyList()));
+        assertFalse(cache.contains(new PreflightCacheKey(ORIGIN, "https://target.co.nz", true), "PUT", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldCacheFailuresAndCountConsecutiveOnes() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        int[] failures = new int[1];
+
+        cache.putFailure(key("https://target.co.nz"), n -> { failures[0] = n; return 60000; });
+        assertTrue(cache.isFailing(key("https://target.co.nz")));
+        assertFalse(cache.contains(key("https://target.co.nz"), "PUT", Collections.emptyList())); // policy removed
+        cache.putFailure(key("https://target.co.nz"), n -> { failures[0] = n; return 0; });
+        assertEquals(2, failures[0]);
+        assertFalse(cache.isFailing(key("https://target.co.nz")));
+
+        cache.put(key("https://target.co.nz"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        assertTrue(cache.contains(key("https://target.co.nz"), "PUT", Collections.emptyList()));
+        cache.putFailure(key("https://target.co.nz"), n -> { failures[0] = n; return 60000; });
+        assertEquals(1, failures[0]); // reset by success
+    }
+
+    @Test
+    public void itShouldClearLogicallyAndRemoveIncrementally() {
+        PreflightCache cache = new PreflightCache(0);
+        for (int i = 0; i < 10; ++i) {
+            cache.put(key("https://target.co.nz/" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        }
+        cache.clearInsertedBefore(System.nanoTime());
+        assertEquals(10, cache.size());
+
+        cache.put(key("https://target.co.nz/new"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        assertEquals(10 - PreflightCache.SWEEP_BATCH + 1, cache.size());
+        assertFalse(cache.contains(key("https://target.co.nz/9"), "PUT", Collections.emptyList()));
+        assertTrue(cache.contains(key("https://target.co.nz/new"), "PUT", Collections.emptyList()));
+        for (int i = 0; i < 10; ++i) cache.contains(key("https://target.co.nz/new"), "PUT", Collections.emptyList());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void itShouldRemoveClearedEntriesBehindLiveOnes() {
+        PreflightCache cache = new PreflightCache(0);
+        for (int i = 0; i < 6; ++i) {
+            cache.put(key("https://target.co.nz/old" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        }
+        final long cutoff = System.nanoTime();
+        for (int i = 0; i < 2; ++i) {
+            cache.put(key("https://target.co.nz/new" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        }
+        for (String path : Arrays.asList("new0", "old0", "old1", "new1", "old2", "old3", "old4", "old5")) {
+            cache.contains(key("https://target.co.nz/" + path), "PUT", Collections.emptyList()); // least recently used first
+        }
+        cache.clearInsertedBefore(cutoff);
+
+        cache.contains(key("https://target.co.nz/other"), "PUT", Collections.emptyList());
+        assertEquals(8 - PreflightCache.SWEEP_BATCH, cache.size());
+        cache.contains(key("https://target.co.nz/other"), "PUT", Collections.emptyList());
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(key("https://target.co.nz/new0"), "PUT", Collections.emptyList()));
+        assertTrue(cache.contains(key("https://target.co.nz/new1"), "PUT", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldNotClearEntriesUpdatedAfterCutoff() {
+        PreflightCache cache = new PreflightCache(0);
+        cache.put(key("https://target.co.nz/"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        final long cutoff = System.nanoTime();
+        cache.put(key("https://target.co.nz/"), Arrays.asList("DELETE"), Collections.emptyList(), FUTURE);
+        cache.clearInsertedBefore(cutoff);
+        assertTrue(cache.contains(key("https://target.co.nz/"), "DELETE", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldOnlyPutIfAbsent() {
+        PreflightCache cache = new PreflightCache(0);
+        assertEquals(0, cache.putIfAbsent(key("https://target.co.nz/"), Arrays.asList("PUT"), Collections.emptyList(), FUTURE));
+        assertEquals(-1, cache.putIfAbsent(key("https://target.co.nz/"), Arrays.asList("DELETE"), Collections.emptyList(), FUTURE));
+        assertFalse(cache.contains(key("https://target.co.nz/"), "DELETE", Collections.emptyList()));
+    }
+
+    @Test
+    public void itShouldNotEvictBelowMaximumSizeWhenShared() {
+        PreflightCache cache = new PreflightCache(10, CorsPreProcessor.SHARED_CACHE_CONCURRENCY);
+        int evicted = 0;
+        for (int i = 0; i < 10; ++i) {
+            evicted += cache.put(key("https://target.co.nz/" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+        }
+        assertEquals(0, evicted);
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(cache.contains(key("https://target.co.nz/" + i), "PUT", Collections.emptyList()));
+        }
+    }
+
+    @Test
+    public void itShouldNotExceedMaximumSizeSmallerThanSegmentCount() {
+        PreflightCache cache = new PreflightCache(10, CorsPreProcessor.SHARED_CACHE_CONCURRENCY);
+        assertTrue(cache.segments.length > 10);
+        int evicted = 0;
+        for (int i = 0; i < 200; ++i) {
+            evicted += cache.put(key("https://target.co.nz/" + i), Arrays.asList("PUT"), Collections.emptyList(), FUTURE);
+            assertTrue(cache.size() <= 10);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(200 - 10, evicted);
+    }
+}
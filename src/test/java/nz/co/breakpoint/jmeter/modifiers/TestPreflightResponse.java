@@ -0,0 +1,86 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import org.junit.Test;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestPreflightResponse {
+    protected PreflightResponse instance = new PreflightResponse();
+
+    @Test
+    public void itShouldExtractAllAccessControlHeaders() {
+        instance.parse("HTTP/1.1 204 No Content\r\n" +
+                "access-control-allow-origin: https://origin.co.nz\r\n" +
+                "Access-Control-Allow-Credentials: true\r\n" +
+                "Access-Control-Max-Age:600\r\n" +
+                "Access-Control-Allow-Methods: PUT,DELETE\r\n" +
+                "Access-Control-Allow-Headers: x-foo , X-Bar\r\n");
+
+        assertEquals(600L, instance.getMaxAge(5));
+        assertEquals(Arrays.asList("PUT", "DELETE"), instance.getAllowMethods());
+        assertEquals(Arrays.asList("x-foo", "X-Bar"), instance.getAllowHeaders());
+        assertEquals("https://origin.co.nz", instance.getAllowOrigin());
+        assertEquals("true", instance.getAllowCredentials());
+        assertNull(instance.getWarning());
+    }
+
+    @Test
+    public void itShouldCombineRepeatedHeaders() {
+        instance.parse("Access-Control-Allow-Headers: x-foo\n" +
+                "Access-Control-Allow-Headers: x-bar, x-baz\n" +
+                "Access-Control-Max-Age: 60\n" +
+                "Access-Control-Max-Age: 60\n");
+
+        assertEquals(Arrays.asList("x-foo", "x-bar", "x-baz"), instance.getAllowHeaders());
+        assertEquals(60L, instance.getMaxAge(5));
+    }
+
+    @Test
+    public void itShouldIgnoreInvalidMaxAge() {
+        assertEquals(5L, instance.parse("Access-Control-Max-Age: soon\n").getMaxAge(5));
+        assertNotNull(instance.getWarning());
+
+        assertEquals(5L, instance.parse("Access-Control-Max-Age: \n").getMaxAge(5));
+        assertEquals(5L, instance.parse("Access-Control-Max-Age: -1\n").getMaxAge(5));
+        assertEquals(5L, instance.parse("Access-Control-Max-Age: 1\nAccess-Control-Max-Age: 2\n").getMaxAge(5));
+        assertNotNull(instance.getWarning());
+    }
+
+    @Test
+    public void itShouldResetWhenReused() {
+        instance.parse("Access-Control-Allow-Methods: PUT\nAccess-Control-Max-Age: 60\n");
+        instance.parse("Access-Control-Allow-Headers: x-foo\n");
+
+        assertFalse(instance.hasMaxAge());
+        assertTrue(instance.getAllowMethods().isEmpty());
+        assertEquals(Arrays.asList("x-foo"), instance.getAllowHeaders());
+    }
+
+    @Test
+    public void itShouldCheckOriginCredentialsMethodAndHeaders() {
+        final String origin = "https://origin.co.nz";
+        instance.parse("Access-Control-Allow-Methods: PUT\nAccess-Control-Allow-Headers: x-foo\n");
+        assertNotNull(instance.check(origin, false, "PUT", Arrays.asList("X-Foo")));
+
+        instance.parse("Access-Control-Allow-Origin: *\nAccess-Control-Allow-Methods: put\n" +
+                "Access-Control-Allow-Headers: x-foo\n");
+        assertNull(instance.check(origin, false, "PUT", Arrays.asList("X-Foo")));
+        assertNull(instance.check(origin, false, "GET", Arrays.asList()));
+        assertNotNull(instance.check(origin, false, "DELETE", Arrays.asList()));
+        assertNotNull(instance.check(origin, false, "PUT", Arrays.asList("X-Bar")));
+        assertNotNull(instance.check(origin, true, "PUT", Arrays.asList("X-Foo"))); // wildcard origin
+
+        instance.parse("Access-Control-Allow-Origin: https://origin.co.nz\nAccess-Control-Allow-Methods: *\n" +
+                "Access-Control-Allow-Headers: *\n");
+        assertNull(instance.check(origin, false, "DELETE", Arrays.asList("X-Bar")));
+        assertNotNull(instance.check(origin, false, "DELETE", Arrays.asList("Authorization")));
+        assertNotNull(instance.check("https://other.co.nz", false, "DELETE", Arrays.asList()));
+        assertNotNull(instance.check(origin, true, "GET", Arrays.asList())); // no Allow-Credentials
+
+        instance.parse("Access-Control-Allow-Origin: https://origin.co.nz\nAccess-Control-Allow-Credentials: true\n" +
+                "Access-Control-Allow-Methods: *\nAccess-Control-Allow-Headers: Authorization\n");
+        assertNull(instance.check(origin, true, "GET", Arrays.asList("Authorization")));
+        assertNotNull(instance.check(origin, true, "DELETE", Arrays.asList())); // wildcard method
+    }
+}
@@ -0,0 +1,50 @@
+package nz.co.breakpoint.jmeter.modifiers;
+
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TestPreflightSnapshot {
+    protected static final PreflightCacheKey KEY = new PreflightCacheKey("https://source.co.nz", "https://target.co.nz/", true);
+
+    @Test
+    public void itShouldMergePoliciesForSameKey() {
+        PreflightSnapshot snapshot = new PreflightSnapshot();
+        snapshot.record(KEY, Arrays.asList("PUT"), Arrays.asList("x-foo"), 60);
+        snapshot.record(KEY, Arrays.asList("DELETE"), Arrays.asList("x-bar"), 120);
+
+        assertEquals(1, snapshot.size());
+        PreflightSnapshot.Entry entry = snapshot.getEntries().iterator().next();
+        assertEquals(Arrays.asList("PUT", "DELETE"), Arrays.asList(entry.getMethods().toArray()));
+        assertEquals(Arrays.asList("x-foo", "x-bar"), Arrays.asList(entry.getHeaders().toArray()));
+        assertEquals(120, entry.getMaxAge());
+    }
+
+    @Test
+    public void itShouldSaveAndLoadSnapshots() throws IOException {
+        File file = File.createTempFile("preflight", ".snapshot");
+        file.deleteOnExit();
+        PreflightSnapshot snapshot = new PreflightSnapshot();
+        snapshot.record(KEY, Arrays.asList("PUT", "PATCH"), Arrays.asList("x-foo"), 600);
+        snapshot.save(file.toPath());
+
+        PreflightSnapshot loaded = PreflightSnapshot.load(file.toPath());
+        PreflightCache cache = new PreflightCache(0);
+        loaded.warm(cache);
+        assertTrue(cache.contains(KEY, "PATCH", Arrays.asList("X-Foo")));
+        assertFalse(cache.contains(new PreflightCacheKey(KEY.getOrigin(), KEY.getUrl(), false), "PATCH", Collections.emptyList()));
+    }
+
+    @Test(expected = IOException.class)
+    public void itShouldRejectOtherFiles() throws IOException {
+        File file = File.createTempFile("preflight", ".snapshot");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "not a snapshot".getBytes());
+        PreflightSnapshot.load(file.toPath());
+    }
+}